@@ -0,0 +1,101 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import cn.superlu.onlyoffice.dto.CallbackDTO;
+import com.alibaba.fastjson.JSONObject;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回调请求体解析: 原来的Scanner读成字符串再用fastjson解析, 和直接从输入流绑定到回调对象
+ * <p>
+ * 分配量需要配合gc分析器查看:
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Djmh.args="CallbackParseBenchmark -prof gc"
+ * </pre>
+ * 结果中的 gc.alloc.rate.norm 是每次解析分配的字节数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class CallbackParseBenchmark {
+
+    // history.changes中的修改记录数, 长时间多人编辑的文档会有上百条
+    @Param({"1", "50", "500"})
+    public int changes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private byte[] body;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"key\":\"6f1c2a0e9b8d4c3f8a7e5d4c3b2a1f0e\",\"status\":2,")
+                .append("\"url\":\"http://document-server/cache/files/data/6f1c2a0e9b8d4c3f8a7e5d4c3b2a1f0e_1234/output.docx/output.docx?md5=abcdefghijklmnop&expires=1700000000&filename=output.docx\",")
+                .append("\"changesurl\":\"http://document-server/cache/files/data/6f1c2a0e9b8d4c3f8a7e5d4c3b2a1f0e_1234/changes.zip/changes.zip?md5=abcdefghijklmnop&expires=1700000000&filename=changes.zip\",")
+                .append("\"history\":{\"serverVersion\":\"8.3.0\",\"changes\":[");
+        for (int i = 0; i < changes; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"created\":\"2024-01-01 08:").append(String.format("%02d", i % 60))
+                    .append(":00\",\"user\":{\"id\":\"user-").append(i % 8)
+                    .append("\",\"name\":\"编辑用户").append(i % 8).append("\"}}");
+        }
+        json.append("]},\"users\":[\"user-0\",\"user-1\"],")
+                .append("\"actions\":[{\"type\":0,\"userid\":\"user-1\"}],")
+                .append("\"lastsave\":\"2024-01-01T08:00:00.000Z\",\"notmodified\":false,\"filetype\":\"docx\"}");
+        body = json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 原来的实现: Scanner读出整个请求体, fastjson解析成JSONObject后多次取值
+     */
+    @Benchmark
+    public void scannerAndFastjson(Blackhole blackhole) {
+        Scanner scanner = new Scanner(new ByteArrayInputStream(body)).useDelimiter("\\A");
+        String text = scanner.hasNext() ? scanner.next() : "";
+        JSONObject jsonObj = JSONObject.parseObject(text);
+        blackhole.consume(jsonObj.get("status"));
+        if (jsonObj.getIntValue("status") == 2 || jsonObj.getIntValue("status") == 6) {
+            blackhole.consume(jsonObj.getString("url"));
+            blackhole.consume(jsonObj.getString("key"));
+            blackhole.consume(jsonObj.getString("filetype"));
+            blackhole.consume(jsonObj.getString("lastsave"));
+        }
+    }
+
+    /**
+     * 现在的实现: Jackson从输入流直接绑定到回调对象, 未用到的字段跳过
+     */
+    @Benchmark
+    public void streamingJackson(Blackhole blackhole) throws IOException {
+        CallbackDTO callback = objectMapper.readValue(new ByteArrayInputStream(body), CallbackDTO.class);
+        blackhole.consume(callback.getStatus());
+        blackhole.consume(callback.getUrl());
+        blackhole.consume(callback.getKey());
+        blackhole.consume(callback.getFileType());
+        blackhole.consume(callback.getLastsave());
+    }
+}
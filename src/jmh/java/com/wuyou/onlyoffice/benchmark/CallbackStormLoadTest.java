@@ -0,0 +1,413 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import cn.superlu.onlyoffice.OnlyofficeApplication;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 回调风暴压测: 启动完整的应用, 模拟Document Server在自动保存高峰时发来的回调
+ * <p>
+ * 每个文档模拟一次编辑会话: 用户进入(状态1)、若干次强制保存(状态6), 关闭时保存(状态2)或没有修改(状态4)。
+ * 每次保存的文档内容都不同, 由Document Server替身提供下载。所有会话的回调打乱顺序后由固定数量的客户端
+ * 并发发往 /api/onlyoffice/callback, 应答error:1时和Document Server一样稍后重发。
+ * <p>
+ * 回调全部应答后等待保存队列清空, 再直接读取S3替身中的对象, 逐个文档检查是否是lastsave最新的那次保存的内容。
+ * 每轮输出回调吞吐量、应答延迟、被拒绝和失败的回调数、保存队列清空耗时以及一致的文档数。
+ * 有内容不一致的文档、保存队列等待超时或有被放弃的保存任务时, 进程以退出码1结束, 可以在构建流水线中直接判断结果。
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Djmh.main=cn.superlu.onlyoffice.benchmark.CallbackStormLoadTest -Djmh.args="200 5 64 65536 50 3"
+ * 参数依次为: 文档数, 每次会话的强制保存次数, 并发客户端数, 文档大小(字节), Document Server下载延迟(毫秒), 轮数
+ * </pre>
+ */
+public class CallbackStormLoadTest {
+
+    private static final String DOCX_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    // 单个回调最多发送的次数, 和Document Server的重试次数相当
+    private static final int MAX_ATTEMPTS = 5;
+
+    // 应答error:1后重发的间隔
+    private static final long RETRY_DELAY_MILLIS = 200;
+
+    // 等待保存队列清空的最长时间
+    private static final long DRAIN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    // 会话结束时有修改(状态2)的比例, 其余为没有修改直接关闭(状态4)
+    private static final double CLOSE_WITH_CHANGES = 0.75;
+
+    public static void main(String[] args) throws Exception {
+        int documents = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int forceSaves = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int documentSize = args.length > 3 ? Integer.parseInt(args[3]) : 64 * 1024;
+        long latencyMillis = args.length > 4 ? Long.parseLong(args[4]) : 50;
+        int rounds = args.length > 5 ? Integer.parseInt(args[5]) : 3;
+
+        Path workDir = Files.createTempDirectory("onlyoffice-storm");
+        Path journalDir = workDir.resolve("journal");
+        boolean passed = true;
+        try (FakeS3Server s3 = new FakeS3Server(); FakeDocumentServer documentServer = new FakeDocumentServer()) {
+            documentServer.setLatencyMillis(latencyMillis);
+
+            // 应用启动前准备好原始文档, 启动时的对账会把它们加入文件索引
+            Map<String, String> expected = new HashMap<>();
+            for (int i = 0; i < documents; i++) {
+                byte[] data = StorageFixture.document(documentSize, -1 - i);
+                s3.putDirect(StorageFixture.BUCKET, objectName(i), data, DOCX_TYPE);
+                expected.put(objectName(i), sha256(data));
+            }
+
+            // 命令行参数的优先级高于application.yml
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(OnlyofficeApplication.class).run(
+                    "--server.port=0",
+                    "--minio.endpoint=" + s3.endpoint(),
+                    "--minio.access-key=bench",
+                    "--minio.secret-key=bench-secret",
+                    "--minio.bucket-name=" + StorageFixture.BUCKET,
+                    "--onlyoffice.document-server-url=" + documentServer.baseUrl() + "/",
+                    "--onlyoffice.save.journal-dir=" + journalDir,
+                    "--onlyoffice.document-cache.dir=" + workDir.resolve("cache"),
+                    "--onlyoffice.thumbnails.enabled=false",
+                    "--logging.level.cn.superlu.onlyoffice=WARN")) {
+                URI callbackUri = URI.create("http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port")
+                        + "/api/onlyoffice/callback");
+                MeterRegistry registry = context.getBean(MeterRegistry.class);
+                ExecutorService executor = Executors.newFixedThreadPool(concurrency, r -> {
+                    Thread thread = new Thread(r, "storm-client");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+                try {
+                    System.out.printf("%-6s %10s %12s %9s %9s %9s %7s %10s %7s %10s %7s %12s%n",
+                            "round", "callbacks", "throughput/s", "p50(ms)", "p99(ms)", "rejected", "errors",
+                            "drain(ms)", "saves", "coalesced", "stale", "consistent");
+                    long baseTime = System.currentTimeMillis();
+                    for (int round = 0; round < rounds; round++) {
+                        List<Callback> callbacks = storm(documentServer, expected, round, documents, forceSaves,
+                                documentSize, baseTime);
+                        Snapshot before = Snapshot.of(registry);
+                        Result result = send(executor, httpClient, callbackUri, callbacks, concurrency);
+                        long drainMillis = awaitDrain(journalDir);
+                        Snapshot after = Snapshot.of(registry);
+                        int consistent = verify(s3, expected);
+                        passed &= drainMillis >= 0 && consistent == documents;
+                        System.out.printf("%-6d %10d %12.1f %9.1f %9.1f %9d %7d %10s %7d %10d %7d %12s%n",
+                                round + 1, callbacks.size(), result.throughput, result.p50Millis, result.p99Millis,
+                                result.rejected, result.errors, drainMillis < 0 ? "timeout" : String.valueOf(drainMillis),
+                                after.saves - before.saves, after.coalesced - before.coalesced, after.stale - before.stale,
+                                consistent + "/" + documents);
+                        documentServer.clear();
+                    }
+                    int failed = countFiles(journalDir.resolve("failed"));
+                    if (failed > 0) {
+                        System.out.println("放弃的保存任务: " + failed);
+                        passed = false;
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(workDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * 生成一轮回调: 每个文档一次编辑会话, 登记每次保存的文档内容, 并把每个文档的期望内容更新为lastsave最新的一次保存
+     */
+    private static List<Callback> storm(FakeDocumentServer documentServer, Map<String, String> expected, int round,
+                                        int documents, int forceSaves, int documentSize, long baseTime) throws IOException {
+        Random random = new Random(round);
+        // 修改记录压缩包的内容不影响保存结果, 所有版本共用一份
+        byte[] changes = StorageFixture.document(256, round);
+        List<Callback> callbacks = new ArrayList<>();
+        for (int i = 0; i < documents; i++) {
+            String documentKey = fileKey(i) + "_" + round;
+            String user = "user-" + random.nextInt(20);
+            callbacks.add(new Callback(JSON.toJSONString(editing(documentKey, user))));
+
+            int saves = forceSaves + (random.nextDouble() < CLOSE_WITH_CHANGES ? 1 : 0);
+            for (int save = 1; save <= saves; save++) {
+                String name = documentKey + "-" + save;
+                byte[] data = StorageFixture.document(documentSize, ((long) round << 40) | ((long) i << 8) | save);
+                String url = documentServer.publish(name + ".docx", data);
+                String changesUrl = documentServer.publish(name + "-changes.zip", changes);
+                // 同一文档每次保存的lastsave递增, 后一轮的晚于前一轮
+                long lastSave = baseTime + ((long) round * (forceSaves + 2) + save) * 1000L;
+                boolean forceSave = save <= forceSaves;
+                callbacks.add(new Callback(JSON.toJSONString(saved(documentKey, user, url, changesUrl, lastSave, forceSave))));
+                expected.put(objectName(i), sha256(data));
+            }
+            if (saves == forceSaves) {
+                callbacks.add(new Callback(JSON.toJSONString(closed(documentKey, user))));
+            }
+        }
+        // Document Server的重试和多个节点的回调会打乱顺序, 保存结果只能依赖lastsave
+        Collections.shuffle(callbacks, random);
+        return callbacks;
+    }
+
+    /**
+     * 保持固定数量的回调在途, 直到全部应答
+     */
+    private static Result send(ExecutorService executor, HttpClient httpClient, URI callbackUri,
+                               List<Callback> callbacks, int concurrency) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        long start = System.nanoTime();
+        for (Callback callback : callbacks) {
+            inFlight.acquire();
+            executor.execute(() -> {
+                try {
+                    for (int attempt = 1; ; attempt++) {
+                        long sent = System.nanoTime();
+                        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(callbackUri)
+                                        .header("Content-Type", "application/json")
+                                        .POST(HttpRequest.BodyPublishers.ofString(callback.body)).build(),
+                                HttpResponse.BodyHandlers.ofString());
+                        latencies.add(System.nanoTime() - sent);
+                        if (response.statusCode() == 200 && JSON.parseObject(response.body()).getIntValue("error") == 0) {
+                            break;
+                        }
+                        rejected.incrementAndGet();
+                        if (attempt == MAX_ATTEMPTS) {
+                            errors.incrementAndGet();
+                            break;
+                        }
+                        Thread.sleep(RETRY_DELAY_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    errors.incrementAndGet();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+        // 等待所有回调应答
+        inFlight.acquire(concurrency);
+        inFlight.release(concurrency);
+        long elapsed = System.nanoTime() - start;
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        Result result = new Result();
+        result.throughput = callbacks.size() / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+        result.p50Millis = sorted.length == 0 ? 0 : sorted[(int) (sorted.length * 0.50)] / 1_000_000.0;
+        result.p99Millis = sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * 0.99))] / 1_000_000.0;
+        result.rejected = rejected.get();
+        result.errors = errors.get();
+        return result;
+    }
+
+    /**
+     * 保存任务完成或放弃后才会从日志目录删除, 日志目录为空即保存队列已清空
+     *
+     * @return 等待的毫秒数, 超时返回-1
+     */
+    private static long awaitDrain(Path journalDir) throws Exception {
+        long start = System.currentTimeMillis();
+        while (countFiles(journalDir) > 0) {
+            if (System.currentTimeMillis() - start > DRAIN_TIMEOUT_MILLIS) {
+                return -1;
+            }
+            Thread.sleep(20);
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * 逐个文档比较S3替身中的内容和期望内容
+     *
+     * @return 一致的文档数
+     */
+    private static int verify(FakeS3Server s3, Map<String, String> expected) {
+        int consistent = 0;
+        List<String> mismatched = new ArrayList<>();
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            FakeS3Server.StoredObject object = s3.get(StorageFixture.BUCKET, entry.getKey());
+            if (object != null && sha256(object.data).equals(entry.getValue())) {
+                consistent++;
+            } else {
+                mismatched.add(entry.getKey() + (object == null ? "(缺失)" : ""));
+            }
+        }
+        if (!mismatched.isEmpty()) {
+            Collections.sort(mismatched);
+            System.out.println("内容不一致的文档: " + mismatched.subList(0, Math.min(10, mismatched.size()))
+                    + (mismatched.size() > 10 ? " 等" + mismatched.size() + "个" : ""));
+        }
+        return consistent;
+    }
+
+    /**
+     * 状态1: 用户进入编辑
+     */
+    private static Map<String, Object> editing(String documentKey, String user) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("key", documentKey);
+        payload.put("status", 1);
+        payload.put("users", List.of(user));
+        payload.put("actions", List.of(action(1, user)));
+        return payload;
+    }
+
+    /**
+     * 状态6(强制保存)或状态2(关闭后保存), 格式和Document Server一致
+     */
+    private static Map<String, Object> saved(String documentKey, String user, String url, String changesUrl,
+                                             long lastSave, boolean forceSave) {
+        Map<String, Object> author = new LinkedHashMap<>();
+        author.put("id", user);
+        author.put("name", user);
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("created", Instant.ofEpochMilli(lastSave).toString().replace('T', ' ').replace("Z", ""));
+        change.put("user", author);
+        Map<String, Object> history = new LinkedHashMap<>();
+        history.put("serverVersion", "8.1.0");
+        history.put("changes", List.of(change));
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("key", documentKey);
+        payload.put("status", forceSave ? 6 : 2);
+        payload.put("url", url);
+        payload.put("changesurl", changesUrl);
+        payload.put("history", history);
+        payload.put("users", List.of(user));
+        payload.put("actions", List.of(action(0, user)));
+        payload.put("lastsave", Instant.ofEpochMilli(lastSave).toString());
+        payload.put("notmodified", false);
+        payload.put("filetype", "docx");
+        if (forceSave) {
+            // 1: 用户点击保存按钮
+            payload.put("forcesavetype", 1);
+        }
+        return payload;
+    }
+
+    /**
+     * 状态4: 关闭文档, 没有修改
+     */
+    private static Map<String, Object> closed(String documentKey, String user) {
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("key", documentKey);
+        payload.put("status", 4);
+        payload.put("actions", List.of(action(0, user)));
+        return payload;
+    }
+
+    private static JSONObject action(int type, String user) {
+        JSONObject action = new JSONObject();
+        action.put("type", type);
+        action.put("userid", user);
+        return action;
+    }
+
+    private static String fileKey(int index) {
+        return String.format("storm-%05d", index);
+    }
+
+    private static String objectName(int index) {
+        return fileKey(index) + ".docx";
+    }
+
+    private static int countFiles(Path dir) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return 0;
+        }
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 一个待发送的回调
+     */
+    private static class Callback {
+        final String body;
+
+        Callback(String body) {
+            this.body = body;
+        }
+    }
+
+    /**
+     * 保存队列相关指标的快照, 前后相减得到本轮的数值
+     */
+    private static class Snapshot {
+        long saves;
+        long coalesced;
+        long stale;
+
+        static Snapshot of(MeterRegistry registry) {
+            Snapshot snapshot = new Snapshot();
+            snapshot.saves = registry.find("onlyoffice.save.duration").tag("result", "success").timers().stream()
+                    .mapToLong(Timer::count).sum();
+            snapshot.coalesced = (long) registry.find("onlyoffice.save.coalesced").counters().stream()
+                    .mapToDouble(Counter::count).sum();
+            snapshot.stale = (long) registry.find("onlyoffice.save.stale").counters().stream()
+                    .mapToDouble(Counter::count).sum();
+            return snapshot;
+        }
+    }
+
+    private static class Result {
+        double throughput;
+        double p50Millis;
+        double p99Millis;
+        int rejected;
+        int errors;
+    }
+}
@@ -0,0 +1,171 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import cn.superlu.onlyoffice.OnlyofficeApplication;
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import com.alibaba.fastjson.JSON;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * 并发上传压测: 比较Tomcat平台线程池和虚拟线程在同一台机器上的并发能力
+ * <p>
+ * 启动完整的应用, 客户端通过HTTP向 /api/onlyoffice/upload/stream 发送上传请求, 每个请求在Tomcat的请求线程上
+ * 读取请求体并同步写入S3替身, S3替身每次对象请求前等待固定延迟, 模拟阻塞在存储I/O上的请求线程。
+ * 平台线程模式使用Tomcat默认的200个工作线程, 虚拟线程模式(onlyoffice.threads.virtual)每个请求一个虚拟线程,
+ * 需要JDK 21及以上, 低版本JDK只运行平台线程模式。MinIO客户端的并发请求数调大到不成为瓶颈。
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Djmh.main=cn.superlu.onlyoffice.benchmark.ConcurrencyLoadTest -Djmh.args="50,200,800 100 65536"
+ * 参数依次为: 并发数列表, S3请求延迟(毫秒), 文档大小(字节)
+ * </pre>
+ */
+public class ConcurrencyLoadTest {
+
+    private static final String BOUNDARY = "----onlyoffice-load-test";
+
+    private static final String DOCX_TYPE = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    public static void main(String[] args) throws Exception {
+        int[] concurrencyLevels = Arrays.stream((args.length > 0 ? args[0] : "50,200,800").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 100;
+        int documentSize = args.length > 2 ? Integer.parseInt(args[2]) : 64 * 1024;
+        int maxConcurrency = Arrays.stream(concurrencyLevels).max().orElse(1);
+
+        System.out.printf("%-10s %8s %10s %12s %10s %10s %8s%n",
+                "mode", "clients", "requests", "throughput/s", "p50(ms)", "p99(ms)", "errors");
+        byte[] document = StorageFixture.document(documentSize);
+        run(false, concurrencyLevels, latencyMillis, maxConcurrency, document);
+        if (Runtime.version().feature() < 21) {
+            System.out.println("当前JDK " + Runtime.version() + " 不支持虚拟线程, 跳过virtual模式");
+        } else {
+            run(true, concurrencyLevels, latencyMillis, maxConcurrency, document);
+        }
+        System.exit(0);
+    }
+
+    private static void run(boolean virtual, int[] concurrencyLevels, long latencyMillis, int maxConcurrency,
+                            byte[] document) throws Exception {
+        Path workDir = Files.createTempDirectory("onlyoffice-load");
+        try (FakeS3Server s3 = new FakeS3Server(); FakeDocumentServer documentServer = new FakeDocumentServer()) {
+            // 命令行参数的优先级高于application.yml
+            try (ConfigurableApplicationContext context = new SpringApplicationBuilder(OnlyofficeApplication.class).run(
+                    "--server.port=0",
+                    "--server.tomcat.threads.max=200",
+                    "--onlyoffice.threads.virtual=" + virtual,
+                    "--minio.endpoint=" + s3.endpoint(),
+                    "--minio.access-key=bench",
+                    "--minio.secret-key=bench-secret",
+                    "--minio.bucket-name=" + StorageFixture.BUCKET,
+                    "--minio.max-requests=" + maxConcurrency * 4,
+                    "--minio.max-idle-connections=" + maxConcurrency * 4,
+                    "--onlyoffice.document-server-url=" + documentServer.baseUrl() + "/",
+                    "--onlyoffice.save.journal-dir=" + workDir.resolve("journal"),
+                    "--onlyoffice.document-cache.dir=" + workDir.resolve("cache"),
+                    "--onlyoffice.thumbnails.enabled=false",
+                    "--logging.level.cn.superlu.onlyoffice=WARN")) {
+                if (virtual && !context.getBean(IoThreadFactory.class).isVirtual()) {
+                    System.out.println("虚拟线程未生效, 跳过virtual模式");
+                    return;
+                }
+                URI uploadUri = URI.create("http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port")
+                        + "/api/onlyoffice/upload/stream");
+                HttpClient httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+                // 预热连接和代码路径, 不计延迟
+                runLevel(httpClient, uploadUri, document, 20, 40);
+                s3.setLatencyMillis(latencyMillis);
+                for (int concurrency : concurrencyLevels) {
+                    Result result = runLevel(httpClient, uploadUri, document, concurrency, concurrency * 4);
+                    System.out.printf("%-10s %8d %10d %12.1f %10.1f %10.1f %8d%n",
+                            virtual ? "virtual" : "platform", concurrency, result.requests, result.throughput,
+                            result.p50Millis, result.p99Millis, result.errors);
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(workDir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    /**
+     * 保持固定数量的请求在途, 直到完成指定的请求数
+     */
+    private static Result runLevel(HttpClient httpClient, URI uploadUri, byte[] document,
+                                   int concurrency, int requests) throws InterruptedException, IOException {
+        Semaphore inFlight = new Semaphore(concurrency);
+        long[] latencies = new long[requests];
+        AtomicInteger errors = new AtomicInteger();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            inFlight.acquire();
+            int index = i;
+            long submitted = System.nanoTime();
+            HttpRequest request = HttpRequest.newBuilder(uploadUri)
+                    .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(multipart("load-" + index + ".docx", document)))
+                    .build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((response, e) -> {
+                try {
+                    if (e != null || response.statusCode() != 200 || JSON.parseObject(response.body()).getIntValue("failed") > 0) {
+                        errors.incrementAndGet();
+                    }
+                } catch (RuntimeException parseError) {
+                    errors.incrementAndGet();
+                } finally {
+                    latencies[index] = System.nanoTime() - submitted;
+                    inFlight.release();
+                }
+            });
+        }
+        // 等待所有请求完成
+        inFlight.acquire(concurrency);
+        long elapsed = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        Result result = new Result();
+        result.requests = requests;
+        result.throughput = requests / (elapsed / (double) TimeUnit.SECONDS.toNanos(1));
+        result.p50Millis = latencies[(int) (requests * 0.50)] / 1_000_000.0;
+        result.p99Millis = latencies[Math.min(requests - 1, (int) (requests * 0.99))] / 1_000_000.0;
+        result.errors = errors.get();
+        return result;
+    }
+
+    /**
+     * 只包含一个文件的multipart请求体
+     */
+    private static byte[] multipart(String fileName, byte[] content) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 256);
+        body.write(("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: " + DOCX_TYPE + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(content);
+        body.write(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static class Result {
+        int requests;
+        double throughput;
+        double p50Millis;
+        double p99Millis;
+        int errors;
+    }
+}
@@ -0,0 +1,141 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * 进程内的Document Server替身, 按路径返回预先登记的文档内容, 模拟回调中的下载地址。
+ * 转换接口(ConvertService.ashx)对任何文档都立即返回一张固定的PNG缩略图
+ */
+public class FakeDocumentServer implements AutoCloseable {
+
+    private final HttpServer server;
+
+    private final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+
+    // 1x1的PNG图片, 作为转换结果
+    private static final byte[] THUMBNAIL = Base64.getDecoder().decode(
+            "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==");
+
+    // 每次下载前的等待时间, 模拟Document Server的响应延迟
+    private volatile long latencyMillis;
+
+    // 收到的转换请求中的文档键, 按到达顺序
+    private final List<String> convertKeys = new CopyOnWriteArrayList<>();
+
+    static {
+        // 关闭Nagle算法, 否则小请求会被延迟确认拖慢几十毫秒
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public FakeDocumentServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-document-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/cache/files/", this::download);
+        server.createContext("/ConvertService.ashx", this::convert);
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * 登记一个可下载的文档
+     *
+     * @param name 文档名
+     * @param data 文档内容
+     * @return 下载地址
+     */
+    public String publish(String name, byte[] data) {
+        documents.put(name, data);
+        return baseUrl() + "/cache/files/" + name;
+    }
+
+    /**
+     * 清除所有已登记的文档
+     */
+    public void clear() {
+        documents.clear();
+    }
+
+    /**
+     * @return 收到的转换请求中的文档键, 按到达顺序
+     */
+    public List<String> convertKeys() {
+        return convertKeys;
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void convert(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            JSONObject request = JSON.parseObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            String key = request.getString("key");
+            convertKeys.add(key);
+            sleepLatency();
+            JSONObject result = new JSONObject();
+            result.put("endConvert", true);
+            result.put("fileType", request.getString("outputtype"));
+            result.put("fileUrl", publish(key + "." + request.getString("outputtype"), THUMBNAIL));
+            result.put("percent", 100);
+            byte[] body = result.toJSONString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    private void download(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String name = exchange.getRequestURI().getPath().substring("/cache/files/".length());
+            byte[] data = documents.get(name);
+            if (data == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sleepLatency();
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(data);
+            }
+        }
+    }
+
+    private void sleepLatency() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,554 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 进程内的S3兼容存储替身, 只实现本项目用到的接口, 不校验签名
+ * <p>
+ * 支持存储桶检查/创建、对象读写(含Range)、条件写入、元数据、分片上传、列表(V2, 含分隔符)、批量删除
+ * 和MinIO的存储桶通知(不按事件类型和前缀过滤)。
+ */
+public class FakeS3Server implements AutoCloseable {
+
+    private static final String XMLNS = "http://s3.amazonaws.com/doc/2006-03-01/";
+
+    private static final DateTimeFormatter ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+    private static final Pattern PART_PATTERN = Pattern.compile("<PartNumber>(\\d+)</PartNumber>\\s*<ETag>([^<]*)</ETag>");
+
+    private static final Pattern KEY_PATTERN = Pattern.compile("<Key>([^<]*)</Key>");
+
+    private final HttpServer server;
+
+    private final Map<String, NavigableMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+
+    private final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+
+    // 存储桶通知的订阅者, 每个订阅者一个待发送的事件队列
+    private final List<BlockingQueue<String>> subscribers = new CopyOnWriteArrayList<>();
+
+    // 每次对象请求前的等待时间, 模拟存储的响应延迟
+    private volatile long latencyMillis;
+
+    static {
+        // 关闭Nagle算法, 否则小请求会被延迟确认拖慢几十毫秒
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    public FakeS3Server() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "fake-s3");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * 不经过HTTP直接写入对象, 用于快速准备大量测试数据
+     */
+    public void putDirect(String bucket, String key, byte[] data, String contentType) {
+        bucketObjects(bucket, true).put(key, new StoredObject(data, contentType, new HashMap<>()));
+    }
+
+    public StoredObject get(String bucket, String key) {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        return objects == null ? null : objects.get(key);
+    }
+
+    public int objectCount(String bucket) {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        return objects == null ? 0 : objects.size();
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public void clear() {
+        buckets.values().forEach(Map::clear);
+        uploads.clear();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getRawPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String trimmed = path.startsWith("/") ? path.substring(1) : path;
+            int slash = trimmed.indexOf('/');
+            String bucket = slash < 0 ? trimmed : trimmed.substring(0, slash);
+            String key = slash < 0 || slash == trimmed.length() - 1 ? null
+                    : URLDecoder.decode(trimmed.substring(slash + 1), StandardCharsets.UTF_8);
+            String method = exchange.getRequestMethod();
+            if ("HEAD".equals(method) || "DELETE".equals(method)) {
+                // JDK HttpServer在HEAD响应和204响应之后会断开连接, 提前告知客户端不要复用
+                exchange.getResponseHeaders().add("Connection", "close");
+            }
+
+            if (key == null) {
+                handleBucket(exchange, method, bucket, query);
+            } else {
+                handleObject(exchange, method, bucket, key, query);
+            }
+        } catch (RuntimeException e) {
+            sendError(exchange, 500, "InternalError", String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void handleBucket(HttpExchange exchange, String method, String bucket, Map<String, String> query) throws IOException {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        if (query.containsKey("location")) {
+            sendXml(exchange, 200, "<LocationConstraint xmlns=\"" + XMLNS + "\">us-east-1</LocationConstraint>");
+            return;
+        }
+        switch (method) {
+            case "HEAD":
+                send(exchange, objects == null ? 404 : 200, null, null);
+                return;
+            case "PUT":
+                // 创建存储桶时可能带有CreateBucketConfiguration, 读完请求体以便复用连接
+                readBody(exchange);
+                bucketObjects(bucket, true);
+                send(exchange, 200, null, null);
+                return;
+            case "GET":
+                if (objects == null) {
+                    sendError(exchange, 404, "NoSuchBucket", bucket);
+                    return;
+                }
+                if (query.containsKey("events")) {
+                    streamNotifications(exchange);
+                    return;
+                }
+                sendXml(exchange, 200, listV2(bucket, objects, query));
+                return;
+            case "POST":
+                if (query.containsKey("delete")) {
+                    String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+                    Matcher matcher = KEY_PATTERN.matcher(body);
+                    while (matcher.find()) {
+                        String key = unescapeXml(matcher.group(1));
+                        if (objects != null && objects.remove(key) != null) {
+                            publish(bucket, key, "s3:ObjectRemoved:Delete", 0, exchange);
+                        }
+                    }
+                    sendXml(exchange, 200, "<DeleteResult xmlns=\"" + XMLNS + "\"></DeleteResult>");
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        sendError(exchange, 501, "NotImplemented", method + " bucket");
+    }
+
+    /**
+     * 按MinIO的格式持续发送事件: 每行一个JSON, 空闲时发送空行保持连接
+     */
+    private void streamNotifications(HttpExchange exchange) throws IOException {
+        BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+        subscribers.add(queue);
+        try {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            while (true) {
+                String record = queue.poll(500, TimeUnit.MILLISECONDS);
+                out.write(((record == null ? " " : record) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端断开连接
+        } finally {
+            subscribers.remove(queue);
+        }
+    }
+
+    private void publish(String bucket, String key, String eventName, long size, HttpExchange exchange) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String userAgent = exchange.getRequestHeaders().getFirst("User-Agent");
+        String record = "{\"Records\":[{\"eventName\":\"" + eventName + "\",\"s3\":{\"bucket\":{\"name\":\"" + bucket
+                + "\"},\"object\":{\"key\":\"" + URLEncoder.encode(key, StandardCharsets.UTF_8) + "\",\"size\":" + size
+                + "}},\"source\":{\"host\":\"127.0.0.1\",\"userAgent\":\"" + (userAgent == null ? "" : userAgent.replace("\"", "'"))
+                + "\"}}]}";
+        subscribers.forEach(queue -> queue.add(record));
+    }
+
+    private void handleObject(HttpExchange exchange, String method, String bucket, String key, Map<String, String> query) throws IOException {
+        NavigableMap<String, StoredObject> objects = buckets.get(bucket);
+        if (objects == null) {
+            if ("HEAD".equals(method)) {
+                send(exchange, 404, null, null);
+            } else {
+                sendError(exchange, 404, "NoSuchBucket", bucket);
+            }
+            return;
+        }
+        sleepLatency();
+        Headers request = exchange.getRequestHeaders();
+        switch (method) {
+            case "PUT": {
+                if (query.containsKey("uploadId")) {
+                    Map<Integer, byte[]> parts = uploads.get(query.get("uploadId"));
+                    if (parts == null) {
+                        sendError(exchange, 404, "NoSuchUpload", key);
+                        return;
+                    }
+                    byte[] data = readBody(exchange);
+                    parts.put(Integer.parseInt(query.get("partNumber")), data);
+                    exchange.getResponseHeaders().add("ETag", "\"" + md5(data) + "\"");
+                    send(exchange, 200, null, null);
+                    return;
+                }
+                String copySource = request.getFirst("x-amz-copy-source");
+                if (copySource != null) {
+                    String source = URLDecoder.decode(copySource.startsWith("/") ? copySource.substring(1) : copySource, StandardCharsets.UTF_8);
+                    int sep = source.indexOf('/');
+                    StoredObject src = get(source.substring(0, sep), source.substring(sep + 1));
+                    if (src == null) {
+                        sendError(exchange, 404, "NoSuchKey", source);
+                        return;
+                    }
+                    Map<String, String> metadata = "REPLACE".equalsIgnoreCase(request.getFirst("x-amz-metadata-directive"))
+                            ? userMetadata(request) : src.metadata;
+                    StoredObject copy = new StoredObject(src.data, src.contentType, metadata);
+                    objects.put(key, copy);
+                    publish(bucket, key, "s3:ObjectCreated:Copy", copy.data.length, exchange);
+                    sendXml(exchange, 200, "<CopyObjectResult xmlns=\"" + XMLNS + "\"><LastModified>" + ISO.format(copy.lastModified)
+                            + "</LastModified><ETag>\"" + copy.etag + "\"</ETag></CopyObjectResult>");
+                    return;
+                }
+                byte[] data = readBody(exchange);
+                StoredObject object = new StoredObject(data, request.getFirst("Content-Type"), userMetadata(request));
+                // 条件写入和替换在同一个原子操作中完成
+                boolean ifNoneMatch = "*".equals(request.getFirst("If-None-Match"));
+                String ifMatch = request.getFirst("If-Match");
+                boolean[] written = new boolean[1];
+                objects.compute(key, (k, old) -> {
+                    written[0] = !(ifNoneMatch && old != null)
+                            && (ifMatch == null || old != null && ifMatch.replace("\"", "").equals(old.etag));
+                    return written[0] ? object : old;
+                });
+                if (!written[0]) {
+                    sendError(exchange, 412, "PreconditionFailed", key);
+                    return;
+                }
+                publish(bucket, key, "s3:ObjectCreated:Put", data.length, exchange);
+                exchange.getResponseHeaders().add("ETag", "\"" + object.etag + "\"");
+                send(exchange, 200, null, null);
+                return;
+            }
+            case "POST": {
+                if (query.containsKey("uploads")) {
+                    String uploadId = UUID.randomUUID().toString();
+                    uploads.put(uploadId, new ConcurrentHashMap<>());
+                    sendXml(exchange, 200, "<InitiateMultipartUploadResult xmlns=\"" + XMLNS + "\"><Bucket>" + bucket + "</Bucket><Key>"
+                            + escapeXml(key) + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+                    return;
+                }
+                if (query.containsKey("uploadId")) {
+                    Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+                    if (parts == null) {
+                        sendError(exchange, 404, "NoSuchUpload", key);
+                        return;
+                    }
+                    String body = new String(readBody(exchange), StandardCharsets.UTF_8);
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    Matcher matcher = PART_PATTERN.matcher(body);
+                    while (matcher.find()) {
+                        out.write(parts.get(Integer.parseInt(matcher.group(1))));
+                    }
+                    StoredObject object = new StoredObject(out.toByteArray(), request.getFirst("Content-Type"), new HashMap<>());
+                    objects.put(key, object);
+                    publish(bucket, key, "s3:ObjectCreated:CompleteMultipartUpload", object.data.length, exchange);
+                    sendXml(exchange, 200, "<CompleteMultipartUploadResult xmlns=\"" + XMLNS + "\"><Location>/" + bucket + "/" + escapeXml(key)
+                            + "</Location><Bucket>" + bucket + "</Bucket><Key>" + escapeXml(key) + "</Key><ETag>\"" + object.etag
+                            + "\"</ETag></CompleteMultipartUploadResult>");
+                    return;
+                }
+                break;
+            }
+            case "HEAD":
+            case "GET": {
+                StoredObject object = objects.get(key);
+                if (object == null) {
+                    if ("HEAD".equals(method)) {
+                        send(exchange, 404, null, null);
+                    } else {
+                        sendError(exchange, 404, "NoSuchKey", key);
+                    }
+                    return;
+                }
+                Headers response = exchange.getResponseHeaders();
+                response.add("ETag", "\"" + object.etag + "\"");
+                response.add("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(object.lastModified.atZone(ZoneOffset.UTC)));
+                response.add("Content-Type", object.contentType == null ? "application/octet-stream" : object.contentType);
+                object.metadata.forEach((name, value) -> response.add("x-amz-meta-" + name, value));
+                int start = 0;
+                int end = object.data.length - 1;
+                String range = request.getFirst("Range");
+                if (range != null && range.startsWith("bytes=")) {
+                    String[] bounds = range.substring(6).split("-", -1);
+                    start = Integer.parseInt(bounds[0]);
+                    if (!bounds[1].isEmpty()) {
+                        end = Math.min(end, Integer.parseInt(bounds[1]));
+                    }
+                    response.add("Content-Range", "bytes " + start + "-" + end + "/" + object.data.length);
+                }
+                int length = Math.max(0, end - start + 1);
+                int status = range == null ? 200 : 206;
+                if ("HEAD".equals(method)) {
+                    response.add("Content-Length", String.valueOf(length));
+                    exchange.sendResponseHeaders(status, -1);
+                    return;
+                }
+                exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+                if (length > 0) {
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(object.data, start, length);
+                    }
+                }
+                return;
+            }
+            case "DELETE":
+                if (query.containsKey("uploadId")) {
+                    uploads.remove(query.get("uploadId"));
+                } else if (objects.remove(key) != null) {
+                    publish(bucket, key, "s3:ObjectRemoved:Delete", 0, exchange);
+                }
+                send(exchange, 204, null, null);
+                return;
+            default:
+                break;
+        }
+        sendError(exchange, 501, "NotImplemented", method + " object");
+    }
+
+    private String listV2(String bucket, NavigableMap<String, StoredObject> objects, Map<String, String> query) {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.getOrDefault("delimiter", "");
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+        String after = query.get("continuation-token");
+        if (after == null) {
+            after = query.get("start-after");
+        }
+        boolean urlEncoding = "url".equals(query.get("encoding-type"));
+        // MinIO扩展: metadata=true时在列表中返回用户元数据
+        boolean includeMetadata = "true".equals(query.get("metadata"));
+
+        StringBuilder contents = new StringBuilder();
+        TreeSet<String> prefixes = new TreeSet<>();
+        int count = 0;
+        String last = null;
+        boolean truncated = false;
+        NavigableMap<String, StoredObject> view = after == null || after.isEmpty()
+                ? objects.tailMap(prefix, true) : objects.tailMap(after, false);
+        for (Map.Entry<String, StoredObject> entry : view.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            if (count >= maxKeys) {
+                truncated = true;
+                break;
+            }
+            last = key;
+            if (!delimiter.isEmpty()) {
+                int index = key.indexOf(delimiter, prefix.length());
+                if (index >= 0) {
+                    if (prefixes.add(key.substring(0, index + delimiter.length()))) {
+                        count++;
+                    }
+                    continue;
+                }
+            }
+            StoredObject object = entry.getValue();
+            contents.append("<Contents><Key>").append(encodeKey(key, urlEncoding)).append("</Key><LastModified>")
+                    .append(ISO.format(object.lastModified)).append("</LastModified><ETag>\"").append(object.etag)
+                    .append("\"</ETag><Size>").append(object.data.length).append("</Size><StorageClass>STANDARD</StorageClass>");
+            if (includeMetadata && !object.metadata.isEmpty()) {
+                contents.append("<UserMetadata>");
+                object.metadata.forEach((name, value) -> contents.append("<X-Amz-Meta-").append(name).append('>')
+                        .append(escapeXml(value)).append("</X-Amz-Meta-").append(name).append('>'));
+                contents.append("</UserMetadata>");
+            }
+            contents.append("</Contents>");
+            count++;
+        }
+
+        StringBuilder xml = new StringBuilder();
+        xml.append("<ListBucketResult xmlns=\"").append(XMLNS).append("\"><Name>").append(bucket).append("</Name><Prefix>")
+                .append(encodeKey(prefix, urlEncoding)).append("</Prefix><KeyCount>").append(count).append("</KeyCount><MaxKeys>")
+                .append(maxKeys).append("</MaxKeys>");
+        if (!delimiter.isEmpty()) {
+            xml.append("<Delimiter>").append(encodeKey(delimiter, urlEncoding)).append("</Delimiter>");
+        }
+        if (urlEncoding) {
+            xml.append("<EncodingType>url</EncodingType>");
+        }
+        xml.append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (truncated) {
+            xml.append("<NextContinuationToken>").append(escapeXml(last)).append("</NextContinuationToken>");
+        }
+        xml.append(contents);
+        for (String commonPrefix : prefixes) {
+            xml.append("<CommonPrefixes><Prefix>").append(encodeKey(commonPrefix, urlEncoding)).append("</Prefix></CommonPrefixes>");
+        }
+        xml.append("</ListBucketResult>");
+        return xml.toString();
+    }
+
+    private NavigableMap<String, StoredObject> bucketObjects(String bucket, boolean create) {
+        return create ? buckets.computeIfAbsent(bucket, b -> new ConcurrentSkipListMap<>()) : buckets.get(bucket);
+    }
+
+    private Map<String, String> userMetadata(Headers headers) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        headers.forEach((name, values) -> {
+            String lower = name.toLowerCase();
+            if (lower.startsWith("x-amz-meta-") && !values.isEmpty()) {
+                metadata.put(lower.substring("x-amz-meta-".length()), values.get(0));
+            }
+        });
+        return metadata;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        send(exchange, status, "application/xml", xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code, String resource) throws IOException {
+        sendXml(exchange, status, "<Error><Code>" + code + "</Code><Message>" + code + "</Message><Resource>" + escapeXml(resource)
+                + "</Resource><RequestId>fake</RequestId><HostId>fake</HostId></Error>");
+    }
+
+    private void sleepLatency() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        if (contentType != null) {
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+        }
+        if (body == null || body.length == 0) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            query.put(name, value);
+        }
+        return query;
+    }
+
+    private static String encodeKey(String key, boolean urlEncoding) {
+        return urlEncoding ? URLEncoder.encode(key, StandardCharsets.UTF_8).replace("+", "%20").replace("%2F", "/") : escapeXml(key);
+    }
+
+    private static String escapeXml(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String unescapeXml(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"").replace("&amp;", "&");
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 已存储的对象
+     */
+    public static final class StoredObject {
+        public final byte[] data;
+        public final String contentType;
+        public final Map<String, String> metadata;
+        public final String etag;
+        public final Instant lastModified = Instant.now();
+
+        StoredObject(byte[] data, String contentType, Map<String, String> metadata) {
+            this.data = data;
+            this.contentType = contentType;
+            this.metadata = metadata;
+            this.etag = md5(data);
+        }
+    }
+}
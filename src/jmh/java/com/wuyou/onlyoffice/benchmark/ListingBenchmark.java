@@ -0,0 +1,71 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import cn.superlu.onlyoffice.dto.FilePageDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件列表路径: 全量扫描存储桶校正索引, 以及从索引分页
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ListingBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int bucketSize;
+
+    private StorageFixture fixture;
+
+    private String secondPage;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new StorageFixture();
+        byte[] content = new byte[16];
+        for (int i = 0; i < bucketSize; i++) {
+            fixture.s3.putDirect(StorageFixture.BUCKET, String.format("%032x.docx", i), content, "application/octet-stream");
+        }
+        fixture.fileIndexService.reconcile();
+        secondPage = fixture.fileIndexService.page(null, 50).getNextCursor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void reconcile() {
+        fixture.fileIndexService.reconcile();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public FilePageDTO firstPage() {
+        return fixture.fileIndexService.page(null, 50);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public FilePageDTO cursorPage() {
+        return fixture.fileIndexService.page(secondPage, 50);
+    }
+}
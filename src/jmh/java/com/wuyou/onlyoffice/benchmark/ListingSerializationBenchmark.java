@@ -0,0 +1,122 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import cn.superlu.onlyoffice.dto.DisplayTime;
+import cn.superlu.onlyoffice.dto.FilePageDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 文件列表序列化的分配量: 逐页生成文件信息对象再序列化, 和从索引直接流式写出全部文件
+ * <p>
+ * 需要配合GC分析器查看每次调用的分配字节数(gc.alloc.rate.norm):
+ * <pre>
+ * mvn -Pbenchmark compile exec:exec -Djmh.args="ListingSerializationBenchmark -prof gc"
+ * </pre>
+ * cachedUrls=false是默认配置: 预签名URL缓存容量小于对象数, 分页接口每页都要重新签名大部分URL;
+ * 全量导出不包含预签名URL, 不受缓存容量影响。cachedUrls=true时缓存容量足够容纳所有对象,
+ * 分页接口只剩序列化和时间格式化的开销。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class ListingSerializationBenchmark {
+
+    // 逐页获取时每页的条数, 即分页接口的上限
+    private static final int PAGE_SIZE = 500;
+
+    @Param({"10000", "100000"})
+    public int bucketSize;
+
+    @Param({"true", "false"})
+    public boolean cachedUrls;
+
+    private StorageFixture fixture;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final long timestamp = System.currentTimeMillis();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new StorageFixture(false, config -> {
+            if (cachedUrls) {
+                config.setUrlCacheSize(bucketSize);
+            }
+        });
+        byte[] content = new byte[16];
+        for (int i = 0; i < bucketSize; i++) {
+            fixture.s3.putDirect(StorageFixture.BUCKET, String.format("%032x.docx", i), content, "application/octet-stream");
+        }
+        fixture.fileIndexService.reconcile();
+        // 预先签名, 缓存容量足够时测量期间不再签名
+        pagedDtos();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    /**
+     * 按游标逐页获取并序列化, 每个文件生成一个文件信息对象
+     */
+    @Benchmark
+    public int pagedDtos() throws IOException {
+        int count = 0;
+        String cursor = null;
+        do {
+            FilePageDTO page = fixture.fileIndexService.page(cursor, PAGE_SIZE);
+            objectMapper.writeValue(OutputStream.nullOutputStream(), page);
+            count += page.getFiles().size();
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        return count;
+    }
+
+    /**
+     * 从索引直接写出全部文件, 不签名URL
+     */
+    @Benchmark
+    public int streamed() throws IOException {
+        return fixture.fileIndexService.writeAll(OutputStream.nullOutputStream());
+    }
+
+    /**
+     * 原来每次格式化时间都新建SimpleDateFormat和Date
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String formatWithSimpleDateFormat() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(timestamp));
+    }
+
+    /**
+     * 共用的DateTimeFormatter
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public String formatWithDisplayTime() {
+        return DisplayTime.format(timestamp);
+    }
+}
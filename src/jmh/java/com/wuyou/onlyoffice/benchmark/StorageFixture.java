@@ -0,0 +1,215 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import cn.superlu.onlyoffice.config.CoordinationConfig;
+import cn.superlu.onlyoffice.config.DocumentCacheConfig;
+import cn.superlu.onlyoffice.config.DocumentServerClientConfig;
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.MinioConfig;
+import cn.superlu.onlyoffice.config.OnlyOfficeConfig;
+import cn.superlu.onlyoffice.config.SaveQueueConfig;
+import cn.superlu.onlyoffice.config.ThreadsConfig;
+import cn.superlu.onlyoffice.config.ThumbnailConfig;
+import cn.superlu.onlyoffice.config.UploadConfig;
+import cn.superlu.onlyoffice.config.VersionConfig;
+import cn.superlu.onlyoffice.service.CallbackSaveService;
+import cn.superlu.onlyoffice.service.ContentSniffingStage;
+import cn.superlu.onlyoffice.service.CoordinationBackend;
+import cn.superlu.onlyoffice.service.DocumentServerClient;
+import cn.superlu.onlyoffice.service.DocumentServerSigner;
+import cn.superlu.onlyoffice.service.FileIndexService;
+import cn.superlu.onlyoffice.service.LocalCoordinationBackend;
+import cn.superlu.onlyoffice.service.LocalFileCache;
+import cn.superlu.onlyoffice.service.MinioService;
+import cn.superlu.onlyoffice.service.MultipartUploadService;
+import cn.superlu.onlyoffice.service.OnlyOfficeMetrics;
+import cn.superlu.onlyoffice.service.PresignedUrlCache;
+import cn.superlu.onlyoffice.service.ThumbnailService;
+import cn.superlu.onlyoffice.service.UploadPipeline;
+import cn.superlu.onlyoffice.service.VersionService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 基准测试用的服务装配, 不启动Spring容器, 直接连接进程内的S3替身
+ */
+public class StorageFixture implements AutoCloseable {
+
+    public static final String BUCKET = "onlyoffice";
+
+    public final FakeS3Server s3;
+
+    public final FakeDocumentServer documentServer;
+
+    public final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    public final MinioConfig minioConfig = new MinioConfig();
+
+    public final LocalFileCache localFileCache;
+
+    public final MinioService minioService;
+
+    public final MultipartUploadService multipartUploadService;
+
+    public final FileIndexService fileIndexService;
+
+    public final VersionConfig versionConfig = new VersionConfig();
+
+    public final VersionService versionService;
+
+    public final OnlyOfficeConfig onlyOfficeConfig = new OnlyOfficeConfig();
+
+    public final ThumbnailConfig thumbnailConfig = new ThumbnailConfig();
+
+    public final ThumbnailService thumbnailService;
+
+    public final UploadPipeline uploadPipeline;
+
+    public final CallbackSaveService callbackSaveService;
+
+    public final DocumentServerClient documentServerClient;
+
+    public final IoThreadFactory ioThreadFactory;
+
+    public final CoordinationBackend coordinationBackend;
+
+    private final Path workDir;
+
+    public StorageFixture() throws Exception {
+        this(false);
+    }
+
+    /**
+     * @param virtualThreads 保存和分片上传是否使用虚拟线程(JDK 21及以上才生效)
+     */
+    public StorageFixture(boolean virtualThreads) throws Exception {
+        this(virtualThreads, config -> {
+        });
+    }
+
+    /**
+     * @param virtualThreads 保存和分片上传是否使用虚拟线程(JDK 21及以上才生效)
+     * @param minioSettings  创建服务前调整MinIO配置, 如预签名URL缓存容量
+     */
+    public StorageFixture(boolean virtualThreads, Consumer<MinioConfig> minioSettings) throws Exception {
+        s3 = new FakeS3Server();
+        documentServer = new FakeDocumentServer();
+        workDir = Files.createTempDirectory("onlyoffice-bench");
+
+        minioConfig.setEndpoint(s3.endpoint());
+        minioConfig.setAccessKey("bench");
+        minioConfig.setSecretKey("bench-secret");
+        minioConfig.setBucketName(BUCKET);
+        minioSettings.accept(minioConfig);
+
+        DocumentCacheConfig cacheConfig = new DocumentCacheConfig();
+        cacheConfig.setDir(workDir.resolve("cache").toString());
+        SaveQueueConfig saveQueueConfig = new SaveQueueConfig();
+        saveQueueConfig.setJournalDir(workDir.resolve("journal").toString());
+        ThreadsConfig threadsConfig = new ThreadsConfig();
+        threadsConfig.setVirtual(virtualThreads);
+        ioThreadFactory = new IoThreadFactory(threadsConfig);
+
+        multipartUploadService = new MultipartUploadService(minioConfig.multipartMinioClient(), minioConfig, ioThreadFactory);
+        multipartUploadService.init();
+        OnlyOfficeMetrics metrics = new OnlyOfficeMetrics(meterRegistry);
+        coordinationBackend = new LocalCoordinationBackend();
+        localFileCache = new LocalFileCache(cacheConfig, meterRegistry);
+        minioService = new MinioService(minioConfig.minioClient(), minioConfig,
+                new PresignedUrlCache(minioConfig, meterRegistry),
+                localFileCache,
+                multipartUploadService, metrics, coordinationBackend);
+        minioService.init();
+        DocumentServerClientConfig clientConfig = new DocumentServerClientConfig();
+        documentServerClient = new DocumentServerClient(clientConfig.documentServerHttpClient(ioThreadFactory), clientConfig);
+        documentServerClient.init();
+        onlyOfficeConfig.setDocumentServerUrl(documentServer.baseUrl());
+        onlyOfficeConfig.setFileUrlPrefix(documentServer.baseUrl() + "/files/");
+        DocumentServerSigner signer = new DocumentServerSigner(onlyOfficeConfig);
+        signer.init();
+        // 默认不生成缩略图, 避免后台转换影响其他基准测试
+        thumbnailConfig.setEnabled(false);
+        thumbnailService = new ThumbnailService(minioService, documentServerClient, signer, coordinationBackend,
+                onlyOfficeConfig, thumbnailConfig, meterRegistry, ioThreadFactory);
+        thumbnailService.init();
+        fileIndexService = new FileIndexService(minioService, coordinationBackend, thumbnailService);
+        fileIndexService.init();
+        versionService = new VersionService(minioService, documentServerClient, versionConfig);
+        ContentSniffingStage sniffingStage = new ContentSniffingStage(new UploadConfig());
+        sniffingStage.init();
+        uploadPipeline = new UploadPipeline(List.of(sniffingStage));
+        callbackSaveService = new CallbackSaveService(minioService, fileIndexService, saveQueueConfig, meterRegistry, metrics,
+                ioThreadFactory, documentServerClient, versionService, uploadPipeline, coordinationBackend, new CoordinationConfig(),
+                thumbnailService);
+        callbackSaveService.init();
+    }
+
+    /**
+     * 生成指定大小的docx文档, 能通过上传时的类型检测, 内容为随机数据
+     *
+     * @param size 文档大小(字节), 实际大小略大
+     * @return 文档内容
+     */
+    public static byte[] document(int size) throws IOException {
+        return document(size, 42);
+    }
+
+    /**
+     * 生成指定大小的docx文档, 种子不同时内容不同
+     *
+     * @param size 文档大小(字节), 实际大小略大
+     * @param seed 随机数种子
+     * @return 文档内容
+     */
+    public static byte[] document(int size, long seed) throws IOException {
+        byte[] payload = new byte[size];
+        new Random(seed).nextBytes(payload);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 1024);
+        try (ZipOutputStream zip = new ZipOutputStream(out)) {
+            // 类型检测依据第一个条目是[Content_Types].xml识别为OOXML
+            zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+            zip.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\"/>"
+                    .getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            // 随机数据不可压缩, 直接存储
+            ZipEntry media = new ZipEntry("word/media/payload.bin");
+            media.setMethod(ZipEntry.STORED);
+            media.setSize(size);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            media.setCrc(crc.getValue());
+            zip.putNextEntry(media);
+            zip.write(payload);
+            zip.closeEntry();
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() throws Exception {
+        callbackSaveService.shutdown();
+        thumbnailService.shutdown();
+        documentServerClient.shutdown();
+        multipartUploadService.shutdown();
+        documentServer.close();
+        s3.close();
+        try (Stream<Path> files = Files.walk(workDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException ignored) {
+            // 临时目录清理失败不影响结果
+        }
+    }
+}
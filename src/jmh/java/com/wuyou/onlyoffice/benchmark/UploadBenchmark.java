@@ -0,0 +1,82 @@
+package cn.superlu.onlyoffice.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MinioService上传路径: 本地文件上传(大文件走并行分片)和流式上传
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class UploadBenchmark {
+
+    @Param({"10240", "1048576", "16777216", "209715200"})
+    public int fileSize;
+
+    private StorageFixture fixture;
+
+    private byte[] content;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new StorageFixture();
+        content = new byte[fileSize];
+        new Random(42).nextBytes(content);
+        file = Files.createTempFile("bench-upload", ".docx").toFile();
+        Files.write(file.toPath(), content);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearBucket() {
+        fixture.s3.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+        file.delete();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean uploadFile() {
+        return fixture.minioService.uploadFile(file, UUID.randomUUID() + ".docx", "application/octet-stream");
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean uploadFileConcurrent() {
+        return fixture.minioService.uploadFile(file, UUID.randomUUID() + ".docx", "application/octet-stream");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean uploadStreamUnknownLength() {
+        return fixture.minioService.uploadStream(new ByteArrayInputStream(content), -1, UUID.randomUUID() + ".docx", "application/octet-stream");
+    }
+}
@@ -0,0 +1,81 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.benchmark.StorageFixture;
+import cn.superlu.onlyoffice.dto.SaveTaskDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 回调保存路径: 从Document Server替身下载编辑后的文档并写入S3替身
+ * <p>
+ * 和单元测试一样放在保存服务的包中, 直接执行一次保存, 不经过队列和保存锁。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class CallbackSaveBenchmark {
+
+    @Param({"10240", "1048576", "16777216", "209715200"})
+    public int fileSize;
+
+    // 参与保存的不同文档数, 文档越少同一对象被覆盖越频繁
+    @Param({"1", "64"})
+    public int documents;
+
+    private StorageFixture fixture;
+
+    private String downloadUrl;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        fixture = new StorageFixture();
+        downloadUrl = fixture.documentServer.publish("edited.docx", StorageFixture.document(fileSize));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean save() {
+        return fixture.callbackSaveService.save(nextTask(), null);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean saveConcurrent() {
+        return fixture.callbackSaveService.save(nextTask(), null);
+    }
+
+    private SaveTaskDTO nextTask() {
+        SaveTaskDTO task = new SaveTaskDTO();
+        task.setKey("doc" + counter.incrementAndGet() % documents);
+        task.setUrl(downloadUrl);
+        task.setFileType("docx");
+        task.setStatus(2);
+        task.setVersion(System.currentTimeMillis());
+        return task;
+    }
+}
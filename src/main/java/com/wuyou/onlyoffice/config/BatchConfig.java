@@ -0,0 +1,17 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.batch")
+public class BatchConfig {
+    // 批量上传时同时上传的文件数(所有请求共用)
+    private int uploadParallelism = 8;
+    // 单次批量上传的最大文件数
+    private int maxUploadFiles = 100;
+    // 单次批量删除的最大文件数
+    private int maxDeleteFiles = 10000;
+}
@@ -0,0 +1,21 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.coordination")
+public class CoordinationConfig {
+    // 协调方式: local 单节点, minio 多节点共用MinIO(条件写入做保存锁, 存储桶通知做缓存失效)
+    private String backend = "local";
+    // 节点标识, 为空时使用主机名和进程号
+    private String nodeId = "";
+    // 协调对象的名称前缀, 不会出现在文件列表中
+    private String prefix = ".coordination/";
+    // 保存锁的租期(毫秒), 保存期间每隔租期的1/3续期一次, 节点宕机后超过租期由其他节点接管
+    private long lockLeaseMillis = 60 * 1000;
+    // 存储桶通知连接断开后重新连接的间隔(毫秒)
+    private long listenRetryMillis = 5000;
+}
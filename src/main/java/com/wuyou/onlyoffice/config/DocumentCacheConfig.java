@@ -0,0 +1,23 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.document-cache")
+public class DocumentCacheConfig {
+    // 是否启用本地文档缓存
+    private boolean enabled = true;
+    // 本地缓存目录
+    private String dir = System.getProperty("java.io.tmpdir") + "/onlyoffice/cache";
+    // 磁盘缓存总容量(字节)
+    private long maxBytes = 2L * 1024 * 1024 * 1024;
+    // 单个文件超过该大小时不缓存, 直接从MinIO转发(字节)
+    private long maxEntryBytes = 256L * 1024 * 1024;
+    // 内存缓存总容量(字节), 为0时只使用磁盘缓存
+    private long heapMaxBytes = 64L * 1024 * 1024;
+    // 不超过该大小的文件缓存在内存中, 更大的写入磁盘(字节)
+    private long heapMaxEntryBytes = 1024 * 1024;
+}
@@ -0,0 +1,38 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.download")
+public class DocumentServerClientConfig {
+    // 连接超时(毫秒)
+    private long connectTimeoutMillis = 5000;
+    // 等待响应头的超时(毫秒)
+    private long responseTimeoutMillis = 30000;
+    // 单个文档从开始请求到下载完成的最长时间(毫秒), 超时后中断下载
+    private long transferTimeoutMillis = 600000;
+    // 是否优先使用HTTP/2, 服务端不支持时自动使用HTTP/1.1
+    private boolean http2 = true;
+
+    /**
+     * 下载Document Server文档共用的HTTP客户端, 连接在请求之间复用
+     * <p>
+     * 空闲连接的保留时间由JDK的 jdk.httpclient.keepalive.timeout 控制, 默认1200秒。
+     */
+    @Bean
+    public HttpClient documentServerHttpClient(IoThreadFactory ioThreadFactory) {
+        return HttpClient.newBuilder()
+                .version(http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(ioThreadFactory.newThreadPerTaskExecutor("document-server-http-"))
+                .build();
+    }
+}
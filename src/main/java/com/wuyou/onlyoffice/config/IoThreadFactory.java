@@ -0,0 +1,86 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 阻塞I/O线程的创建
+ * <p>
+ * 开启虚拟线程且运行在JDK 21及以上时创建虚拟线程, 否则创建平台线程。
+ * 项目按JDK 17编译, 虚拟线程相关的API通过反射调用。
+ */
+@Slf4j
+@Component
+public class IoThreadFactory {
+
+    private final boolean virtual;
+
+    public IoThreadFactory(ThreadsConfig threadsConfig) {
+        boolean supported = virtualThreadsSupported();
+        if (threadsConfig.isVirtual() && !supported) {
+            log.warn("当前JDK {} 不支持虚拟线程, 使用平台线程", Runtime.version());
+        }
+        this.virtual = threadsConfig.isVirtual() && supported;
+        if (virtual) {
+            log.info("已启用虚拟线程");
+        }
+    }
+
+    /**
+     * @return 是否实际使用虚拟线程
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 创建线程工厂
+     *
+     * @param prefix 线程名前缀
+     * @return 线程工厂
+     */
+    public ThreadFactory threadFactory(String prefix) {
+        if (virtual) {
+            try {
+                // Thread.ofVirtual().name(prefix, 1).factory()
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+                return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("创建虚拟线程工厂失败", e);
+            }
+        }
+        AtomicInteger threadIndex = new AtomicInteger();
+        return r -> new Thread(r, prefix + threadIndex.incrementAndGet());
+    }
+
+    /**
+     * 创建每个任务一个线程的执行器, 只在使用虚拟线程时有意义
+     *
+     * @param prefix 线程名前缀
+     * @return 执行器
+     */
+    public ExecutorService newThreadPerTaskExecutor(String prefix) {
+        if (!virtual) {
+            return Executors.newCachedThreadPool(threadFactory(prefix));
+        }
+        try {
+            Method method = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) method.invoke(null, threadFactory(prefix));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("创建虚拟线程执行器失败", e);
+        }
+    }
+
+    private static boolean virtualThreadsSupported() {
+        // JDK 19和20中虚拟线程是预览特性, 方法存在, 但没有开启预览时调用会抛出异常
+        return Runtime.version().feature() >= 21;
+    }
+}
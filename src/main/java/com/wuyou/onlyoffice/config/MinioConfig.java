@@ -1,12 +1,21 @@
 package cn.superlu.onlyoffice.config;
 
+import io.minio.MinioAsyncClient;
 import io.minio.MinioClient;
 import lombok.Data;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 @Data
 @Configuration
 @ConfigurationProperties(prefix = "minio")
@@ -21,12 +30,85 @@ public class MinioConfig {
     private String bucketName;
     // 是否使用安全连接
     private boolean secure;
+    // 预签名URL有效期(天)
+    private int urlExpiryDays = 7;
+    // 预签名URL缓存容量
+    private int urlCacheSize = 10000;
+    // 预签名URL距离过期多久时重新签名(小时)
+    private int urlRefreshBeforeHours = 24;
+    // 超过该大小的文件使用并行分片上传(字节)
+    private long multipartThreshold = 64L * 1024 * 1024;
+    // 分片大小(字节), 不能小于5MB
+    private int multipartPartSize = 16 * 1024 * 1024;
+    // 单个文件同时上传的分片数
+    private int multipartParallelism = 4;
+    // 分片上传线程总数
+    private int multipartThreads = 8;
+    // 单个分片最大尝试次数
+    private int multipartPartAttempts = 3;
+    // 连接超时(毫秒)
+    private long connectTimeoutMillis = 5000;
+    // 读超时(毫秒)
+    private long readTimeoutMillis = 60000;
+    // 写超时(毫秒)
+    private long writeTimeoutMillis = 60000;
+    // 连接池最大空闲连接数
+    private int maxIdleConnections = 32;
+    // 空闲连接保活时间(秒)
+    private long keepAliveSeconds = 300;
+    // 异步请求的最大并发数(分片上传使用)
+    private int maxRequests = 128;
+    // 长度未知的流式上传的分片大小(字节), 不能小于5MB; 每个上传同时只在内存中缓存一个分片
+    private long streamPartSize = 16L * 1024 * 1024;
+    // 是否开启内容去重, 相同内容只存一份数据块, 对象名处只存指向数据块的指针
+    private boolean dedupEnabled = false;
+    // 数据块的对象名前缀
+    private String blobPrefix = "blobs/";
+    // 清理无引用数据块的间隔(毫秒)
+    private long blobGcIntervalMillis = 24L * 60 * 60 * 1000;
+
+    /**
+     * MinIO客户端共用的HTTP连接池, 同步和异步客户端共享连接
+     */
+    @Bean
+    public OkHttpClient minioHttpClient() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequests);
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(true)
+                .protocols(List.of(Protocol.HTTP_1_1))
+                .build();
+    }
 
     @Bean
     public MinioClient minioClient() {
         return MinioClient.builder()
-                .endpoint(endpoint)
+                .endpoint(endpointUrl())
                 .credentials(accessKey, secretKey)
+                .httpClient(minioHttpClient())
                 .build();
     }
+
+    @Bean
+    public MultipartMinioClient multipartMinioClient() {
+        return new MultipartMinioClient(MinioAsyncClient.builder()
+                .endpoint(endpointUrl())
+                .credentials(accessKey, secretKey)
+                .httpClient(minioHttpClient())
+                .build());
+    }
+
+    /**
+     * 解析服务地址, 协议以secure配置为准, 地址可以不带协议
+     */
+    private HttpUrl endpointUrl() {
+        String raw = endpoint.contains("://") ? endpoint : (secure ? "https://" : "http://") + endpoint;
+        return HttpUrl.get(raw).newBuilder().scheme(secure ? "https" : "http").build();
+    }
 }
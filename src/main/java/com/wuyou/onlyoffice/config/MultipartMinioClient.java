@@ -0,0 +1,42 @@
+package cn.superlu.onlyoffice.config;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.AbortMultipartUploadResponse;
+import io.minio.CreateMultipartUploadResponse;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.UploadPartResponse;
+import io.minio.messages.Part;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 暴露MinIO SDK中受保护的分片上传接口, 用于并行上传各个分片
+ */
+public class MultipartMinioClient extends MinioAsyncClient {
+
+    public MultipartMinioClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(String bucket, String object, String contentType) throws Exception {
+        Multimap<String, String> headers = HashMultimap.create();
+        if (contentType != null) {
+            headers.put("Content-Type", contentType);
+        }
+        return createMultipartUploadAsync(bucket, null, object, headers, null);
+    }
+
+    public CompletableFuture<UploadPartResponse> uploadPart(String bucket, String object, String uploadId, int partNumber, byte[] data, int length) throws Exception {
+        return uploadPartAsync(bucket, null, object, data, length, uploadId, partNumber, null, null);
+    }
+
+    public CompletableFuture<ObjectWriteResponse> completeMultipartUpload(String bucket, String object, String uploadId, Part[] parts) throws Exception {
+        return completeMultipartUploadAsync(bucket, null, object, uploadId, parts, null, null);
+    }
+
+    public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(String bucket, String object, String uploadId) throws Exception {
+        return abortMultipartUploadAsync(bucket, null, object, uploadId, null, null);
+    }
+}
@@ -0,0 +1,25 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.save")
+public class SaveQueueConfig {
+    // 保存工作线程数
+    private int workers = 4;
+    // 等待队列容量, 满了之后回调返回错误让Document Server稍后重试
+    private int queueCapacity = 200;
+    // 单个保存任务最大尝试次数
+    private int maxAttempts = 5;
+    // 重试间隔(毫秒), 按尝试次数线性递增
+    private long retryDelayMillis = 2000;
+    // 其他节点持有保存锁时每次尝试最多推迟的次数, 超过后按一次失败处理
+    private int maxLockBusyRetries = 30;
+    // 恢复历史版本的请求最多等待的时间(毫秒), 超时后返回202, 恢复任务继续在队列中执行
+    private long restoreWaitMillis = 30000;
+    // 保存任务日志目录, 未完成的任务在重启后从这里恢复
+    private String journalDir = System.getProperty("java.io.tmpdir") + "/onlyoffice/journal";
+}
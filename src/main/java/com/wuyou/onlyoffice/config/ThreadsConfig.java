@@ -0,0 +1,13 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.threads")
+public class ThreadsConfig {
+    // 是否使用虚拟线程处理请求、保存和分片上传, 需要JDK 21及以上, 低版本JDK下自动退回平台线程
+    private boolean virtual = false;
+}
@@ -0,0 +1,27 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.thumbnails")
+public class ThumbnailConfig {
+    // 是否在上传和保存后生成缩略图
+    private boolean enabled = true;
+    // 缩略图的对象名前缀: thumbnails/{文件键}.png
+    private String prefix = "thumbnails/";
+    // 缩略图宽度(像素)
+    private int width = 320;
+    // 缩略图高度(像素)
+    private int height = 320;
+    // 同时生成缩略图的文档数, 和保存队列分开, 不占用保存的线程
+    private int workers = 2;
+    // 等待生成的文档数上限, 超过时丢弃新任务
+    private int queueCapacity = 10000;
+    // 单个文档等待转换完成的最长时间(毫秒)
+    private long convertTimeoutMillis = 120000;
+    // 转换未完成时再次查询的间隔(毫秒)
+    private long pollIntervalMillis = 1000;
+}
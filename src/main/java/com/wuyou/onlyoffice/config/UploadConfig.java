@@ -0,0 +1,33 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.upload")
+public class UploadConfig {
+    // 允许上传和保存的文件类型(按内容检测出的MIME类型), 其余类型拒绝
+    private List<String> allowedTypes = new ArrayList<>(List.of(
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/msword",
+            "application/vnd.ms-excel",
+            "application/vnd.ms-powerpoint",
+            "application/vnd.oasis.opendocument.text",
+            "application/vnd.oasis.opendocument.spreadsheet",
+            "application/vnd.oasis.opendocument.presentation",
+            "application/rtf",
+            "application/pdf",
+            "text/plain",
+            "text/csv"));
+    // 识别OOXML文档时最多从文件开头读取的字节数, [Content_Types].xml 需要在这个范围内
+    private int containerSniffBytes = 1024 * 1024;
+    // 流式上传接口的单个文件最大大小(字节)
+    private long streamMaxFileBytes = 4L * 1024 * 1024 * 1024;
+}
@@ -0,0 +1,23 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "onlyoffice.versions")
+public class VersionConfig {
+    // 是否在回调保存时记录历史版本
+    private boolean enabled = true;
+    // 历史版本的对象名前缀, 每个文档一个目录: versions/{文件键}/
+    private String prefix = "versions/";
+    // 完整快照的最小间隔(毫秒), 间隔内的保存只记录修改记录
+    private long snapshotIntervalMillis = 60L * 60 * 1000;
+    // 该时间内的版本全部保留(毫秒)
+    private long keepAllMillis = 24L * 60 * 60 * 1000;
+    // 超过keepAllMillis后每天只保留最后一个快照, 只有修改记录的版本删除, 超过该天数的快照删除
+    private int keepDailyDays = 30;
+    // 压缩历史版本的间隔(毫秒)
+    private long compactIntervalMillis = 60L * 60 * 1000;
+}
@@ -0,0 +1,27 @@
+package cn.superlu.onlyoffice.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 开启虚拟线程时, Tomcat每个请求在单独的虚拟线程上处理, 不再受工作线程池大小限制
+ * <p>
+ * 运行在JDK 21及以上时也可以直接使用Spring Boot的 spring.threads.virtual.enabled。
+ */
+@Configuration
+@RequiredArgsConstructor
+public class VirtualThreadConfig {
+
+    private final IoThreadFactory ioThreadFactory;
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> {
+            if (ioThreadFactory.isVirtual()) {
+                protocolHandler.setExecutor(ioThreadFactory.newThreadPerTaskExecutor("tomcat-handler-"));
+            }
+        };
+    }
+}
@@ -1,5 +1,8 @@
 package cn.superlu.onlyoffice.constant;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+
 public enum OnlyOfficeCallBackStatus {
     SUCCESS(0, "通用"),
     EDIT(1, "正在编辑文档"),
@@ -22,4 +25,29 @@ public enum OnlyOfficeCallBackStatus {
     public boolean equals(Integer code) {
         return this.code.equals(code);
     }
+
+    @JsonValue
+    public Integer getCode() {
+        return code;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * 根据状态码查找回调状态
+     *
+     * @param code 状态码
+     * @return 回调状态, 未知状态码返回null
+     */
+    @JsonCreator
+    public static OnlyOfficeCallBackStatus fromCode(Integer code) {
+        for (OnlyOfficeCallBackStatus status : values()) {
+            if (status.code.equals(code)) {
+                return status;
+            }
+        }
+        return null;
+    }
 }
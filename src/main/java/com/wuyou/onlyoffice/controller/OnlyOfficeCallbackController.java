@@ -0,0 +1,50 @@
+package cn.superlu.onlyoffice.controller;
+
+
+import cn.superlu.onlyoffice.dto.CallbackDTO;
+import cn.superlu.onlyoffice.service.OnlyOfficeService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * OnlyOffice回调接口
+ * <p>
+ * 单独放在一个控制器中, 回调格式的错误应答只作用于回调, 其他接口的请求体无法解析时仍返回400。
+ */
+@Slf4j
+@RestController
+@RequestMapping("/api/onlyoffice")
+@RequiredArgsConstructor
+public class OnlyOfficeCallbackController {
+
+    private final OnlyOfficeService onlyOfficeService;
+
+    /**
+     * OnlyOffice回调接口, 请求体直接从输入流解析为回调对象
+     * @param callback 回调请求体
+     * @return 处理结果
+     */
+    @RequestMapping(value = "/callback", produces = MediaType.APPLICATION_JSON_VALUE)
+    public String callback(@RequestBody CallbackDTO callback) {
+        return onlyOfficeService.handleCallback(callback);
+    }
+
+    /**
+     * 回调请求体无法解析时仍按OnlyOffice要求的格式应答
+     *
+     * @param e 解析异常
+     * @return 处理结果
+     */
+    @ExceptionHandler(HttpMessageNotReadableException.class)
+    public ResponseEntity<String> callbackNotReadable(HttpMessageNotReadableException e) {
+        log.error("解析OnlyOffice回调失败: {}", e.getMessage());
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body("{\"error\":1,\"message\":\"回调格式错误\"}");
+    }
+}
@@ -1,21 +1,31 @@
 package cn.superlu.onlyoffice.controller;
 
 
+import cn.superlu.onlyoffice.config.SaveQueueConfig;
+import cn.superlu.onlyoffice.dto.BatchResultDTO;
 import cn.superlu.onlyoffice.dto.FileInfoDTO;
-import cn.superlu.onlyoffice.service.MinioService;
+import cn.superlu.onlyoffice.dto.FilePageDTO;
+import cn.superlu.onlyoffice.dto.VersionDTO;
+import cn.superlu.onlyoffice.service.CallbackSaveService;
+import cn.superlu.onlyoffice.service.EditorConfigService;
+import cn.superlu.onlyoffice.service.FileDeliveryService;
+import cn.superlu.onlyoffice.service.FileIndexService;
 import cn.superlu.onlyoffice.service.OnlyOfficeService;
+import cn.superlu.onlyoffice.service.VersionService;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -24,7 +34,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @RestController
@@ -34,7 +44,17 @@ public class OnlyOfficeController {
 
     private final OnlyOfficeService onlyOfficeService;
 
-    private final MinioService minioService;
+    private final FileIndexService fileIndexService;
+
+    private final FileDeliveryService fileDeliveryService;
+
+    private final VersionService versionService;
+
+    private final CallbackSaveService callbackSaveService;
+
+    private final EditorConfigService editorConfigService;
+
+    private final SaveQueueConfig saveQueueConfig;
 
 
     /**
@@ -53,24 +73,53 @@ public class OnlyOfficeController {
     }
 
     /**
-     * OnlyOffice回调接口
-     * @param request HTTP请求
-     * @param response HTTP响应
-     * @return 处理结果
-     * @throws IOException IO异常
+     * 批量上传文件
+     * <p>
+     * 请求由Tomcat完整解析后才进入这里, 每个文件都会先落地为临时文件(小文件在内存中);
+     * 大文件或文件较多时使用 {@link #uploadStream(HttpServletRequest)}, 边读请求体边写入MinIO。
+     *
+     * @param files 上传的文件
+     * @return 每个文件的上传结果
      */
-    @RequestMapping("/callback")
-    @ResponseBody
-    public String callback(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        // 设置正确的响应内容类型
-        response.setContentType("application/json");
-
-        // 读取请求体
-        Scanner scanner = new Scanner(request.getInputStream()).useDelimiter("\\A");
-        String body = scanner.hasNext() ? scanner.next() : "";
-
-        // 处理回调
-        return onlyOfficeService.handleCallback(body);
+    @PostMapping("/upload/batch")
+    public ResponseEntity<BatchResultDTO> uploadFiles(@RequestParam("files") List<MultipartFile> files) {
+        BatchResultDTO result = onlyOfficeService.uploadFiles(files);
+        if (result == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 流式上传文件, 请求体直接写入MinIO, 不落地临时文件, 适合大文件
+     *
+     * @param request multipart请求, 可以包含多个文件
+     * @return 每个文件的上传结果
+     */
+    @PostMapping("/upload/stream")
+    public ResponseEntity<BatchResultDTO> uploadStream(HttpServletRequest request) {
+        BatchResultDTO result = onlyOfficeService.uploadStream(request);
+        if (result == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 获取打开编辑器所需的配置, 包含文档地址、文档键、回调地址、权限和签名
+     *
+     * @param fileKey 文件键
+     * @param mode    打开模式, edit或view, 默认edit
+     * @return 编辑器配置
+     */
+    @GetMapping("/config/{fileKey}")
+    public ResponseEntity<Map<String, Object>> getEditorConfig(@PathVariable String fileKey,
+                                                               @RequestParam(defaultValue = "edit") String mode) {
+        Map<String, Object> config = editorConfigService.get(fileKey, !"view".equals(mode));
+        if (config == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(config);
     }
 
     /**
@@ -82,7 +131,7 @@ public class OnlyOfficeController {
     @DeleteMapping("/delete/{fileKey}")
     public ResponseEntity<Map<String, Object>> deleteFile(@PathVariable String fileKey) {
         Map<String, Object> response = new HashMap<>();
-        boolean deleted = minioService.deleteFile(fileKey);
+        boolean deleted = onlyOfficeService.deleteFile(fileKey);
 
         if (deleted) {
             response.put("success", true);
@@ -95,13 +144,101 @@ public class OnlyOfficeController {
     }
 
     /**
-     * 获取文件列表
+     * 批量删除文件
+     *
+     * @param fileKeys 文件键列表
+     * @return 每个文件的删除结果
+     */
+    @PostMapping("/delete/batch")
+    public ResponseEntity<BatchResultDTO> deleteFiles(@RequestBody List<String> fileKeys) {
+        BatchResultDTO result = onlyOfficeService.deleteFiles(fileKeys);
+        if (result == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 获取文件列表, 按最后修改时间倒序分页
      *
-     * @return 文件列表
+     * @param cursor 上一页返回的游标, 第一页不传
+     * @param limit  每页条数
+     * @return 文件分页
      */
     @GetMapping("/files")
-    public ResponseEntity<List<FileInfoDTO>> getFiles() {
-        List<FileInfoDTO> files = minioService.listFiles();
-        return ResponseEntity.ok(files);
+    public ResponseEntity<FilePageDTO> getFiles(@RequestParam(required = false) String cursor,
+                                                @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(fileIndexService.page(cursor, limit));
+    }
+
+    /**
+     * 获取全部文件, 按最后修改时间倒序, 边遍历索引边写出JSON数组, 用于文件很多时一次导出
+     * <p>
+     * 不包含预签名URL, 文件内容通过 /files/{fileName} 获取
+     *
+     * @param response HTTP响应
+     * @throws IOException IO异常
+     */
+    @GetMapping("/files/all")
+    public void getAllFiles(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        response.setCharacterEncoding("UTF-8");
+        fileIndexService.writeAll(response.getOutputStream());
+    }
+
+    /**
+     * 下载文件内容, 供Document Server打开文档, 支持Range和If-None-Match
+     *
+     * @param fileName 对象名称(文件键.扩展名)
+     * @param request  HTTP请求
+     * @param response HTTP响应
+     * @throws IOException IO异常
+     */
+    @GetMapping("/files/{fileName:.+}")
+    public void downloadFile(@PathVariable String fileName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        fileDeliveryService.serve(fileName, request, response);
+    }
+
+    /**
+     * 获取文档的历史版本
+     *
+     * @param fileKey 文件键
+     * @return 按时间倒序的版本列表
+     */
+    @GetMapping("/versions/{fileKey}")
+    public ResponseEntity<List<VersionDTO>> getVersions(@PathVariable String fileKey) {
+        List<VersionDTO> versions = versionService.list(fileKey);
+        if (versions == null) {
+            return ResponseEntity.internalServerError().build();
+        }
+        return ResponseEntity.ok(versions);
+    }
+
+    /**
+     * 把文档恢复到指定的历史版本
+     *
+     * @param fileKey 文件键
+     * @param version 版本号
+     * @return 恢复结果, 在等待时间内没有完成(如其他节点正在保存该文档)时返回202, 恢复任务继续在队列中执行
+     */
+    @PostMapping("/versions/{fileKey}/{version}/restore")
+    public ResponseEntity<Map<String, Object>> restoreVersion(@PathVariable String fileKey, @PathVariable long version) {
+        Map<String, Object> response = new HashMap<>();
+        Boolean restored = callbackSaveService.restore(fileKey, version)
+                .completeOnTimeout(null, saveQueueConfig.getRestoreWaitMillis(), TimeUnit.MILLISECONDS)
+                .join();
+        if (restored == null) {
+            response.put("success", false);
+            response.put("message", "版本恢复已提交, 仍在等待保存");
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        }
+        if (restored) {
+            response.put("success", true);
+            response.put("message", "版本恢复成功");
+        } else {
+            response.put("success", false);
+            response.put("message", "版本恢复失败");
+        }
+        return ResponseEntity.ok(response);
     }
 }
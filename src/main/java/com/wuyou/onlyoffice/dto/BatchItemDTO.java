@@ -0,0 +1,15 @@
+package cn.superlu.onlyoffice.dto;
+
+import lombok.Data;
+
+@Data
+public class BatchItemDTO {
+    // 上传时为原始文件名, 删除时为文件键
+    private String name;
+    // 是否成功
+    private boolean success;
+    // 失败原因
+    private String message;
+    // 上传成功后的文件信息
+    private FileInfoDTO file;
+}
@@ -0,0 +1,15 @@
+package cn.superlu.onlyoffice.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchResultDTO {
+    // 每个文件的处理结果, 顺序与请求一致
+    private List<BatchItemDTO> items;
+    // 成功数
+    private int succeeded;
+    // 失败数
+    private int failed;
+}
@@ -0,0 +1,35 @@
+package cn.superlu.onlyoffice.dto;
+
+import cn.superlu.onlyoffice.constant.OnlyOfficeCallBackStatus;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * OnlyOffice回调请求体
+ * <p>
+ * 只绑定用到的字段, history、actions等其余字段在解析时直接跳过, 不会生成对象。
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class CallbackDTO {
+    // 文档键
+    private String key;
+    // 回调状态, 未知状态码时为null
+    private OnlyOfficeCallBackStatus status;
+    // 编辑后文档的下载地址(状态2和6)
+    private String url;
+    // 文档修改记录压缩包的下载地址
+    private String changesurl;
+    // 编辑后文档的类型
+    @JsonProperty("filetype")
+    private String fileType;
+    // 最后保存时间, 如2024-01-01T08:00:00.000Z
+    private String lastsave;
+    // 正在编辑文档的用户
+    private List<String> users;
+    // 强制保存的类型(状态6)
+    private Integer forcesavetype;
+}
@@ -0,0 +1,27 @@
+package cn.superlu.onlyoffice.dto;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * 前端显示的时间格式, 按服务器时区格式化为 yyyy-MM-dd HH:mm:ss
+ * <p>
+ * DateTimeFormatter不可变且线程安全, 全局共用一个, 列表中的每一项不再各自创建格式化对象。
+ */
+public final class DisplayTime {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(ZoneId.systemDefault());
+
+    private DisplayTime() {
+    }
+
+    /**
+     * @param epochMillis 时间戳(毫秒)
+     * @return 格式化后的时间
+     */
+    public static String format(long epochMillis) {
+        return FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+}
@@ -1,6 +1,5 @@
 package cn.superlu.onlyoffice.dto;
 
-import com.fasterxml.jackson.annotation.JsonFormat;
 import lombok.Data;
 
 @Data
@@ -13,13 +12,17 @@ public class FileInfoDTO {
     private String fileType;
     // 文件键
     private String fileKey;
+    // 文件大小（字节）
+    private long fileSize;
     // 上传时间（时间戳）
     private long uploadTime;
+    // 缩略图URL, 还没有生成时为null
+    private String thumbnailUrl;
+    // 文档版本, 取MinIO中对象的ETag, 文档被覆盖后改变
+    private String version;
 
     // 格式化的上传时间，用于前端显示
-    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss", timezone = "GMT+8")
     public String getUploadTimeFormatted() {
-        return new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-                .format(new java.util.Date(uploadTime));
+        return DisplayTime.format(uploadTime);
     }
 }
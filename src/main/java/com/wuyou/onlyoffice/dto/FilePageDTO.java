@@ -0,0 +1,15 @@
+package cn.superlu.onlyoffice.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class FilePageDTO {
+    // 当前页文件列表
+    private List<FileInfoDTO> files;
+    // 下一页游标, 没有更多数据时为null
+    private String nextCursor;
+    // 文件总数
+    private int total;
+}
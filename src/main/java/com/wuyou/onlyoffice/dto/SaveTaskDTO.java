@@ -0,0 +1,33 @@
+package cn.superlu.onlyoffice.dto;
+
+import lombok.Data;
+
+@Data
+public class SaveTaskDTO {
+    // 任务ID, 同时作为日志文件名
+    private String taskId;
+    // 文档键
+    private String key;
+    // 编辑后文档的下载地址
+    private String url;
+    // 恢复历史版本时的源对象名称, 不为null时从该对象复制, 不下载
+    private String sourceObject;
+    // 修改记录压缩包的下载地址, 没有时为null
+    private String changesUrl;
+    // 文件类型
+    private String fileType;
+    // 回调状态(2或6), 恢复历史版本时为0
+    private int status;
+    // 文档版本(回调中的lastsave时间戳)
+    private long version;
+    // 强制保存时沿用的文档键版本, 保存后编辑器的文档键不变; 为null时保存后文档键改变
+    private String documentVersion;
+    // 提交序号, 版本相同时用来区分先后
+    private long sequence;
+    // 入队时间（时间戳）
+    private long enqueueTime;
+    // 已尝试次数
+    private int attempts;
+    // 本次尝试中因其他节点持有保存锁而推迟的次数
+    private int lockBusyRetries;
+}
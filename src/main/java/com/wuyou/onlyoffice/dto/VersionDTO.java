@@ -0,0 +1,26 @@
+package cn.superlu.onlyoffice.dto;
+
+import lombok.Data;
+
+@Data
+public class VersionDTO {
+    // 版本号(保存时回调中的lastsave时间戳)
+    private long version;
+    // 文件键
+    private String fileKey;
+    // 文件类型
+    private String fileType;
+    // 是否保存了完整快照, 只有修改记录的版本不能直接恢复
+    private boolean snapshot;
+    // 文件大小（字节）, 只有修改记录的版本为0
+    private long fileSize;
+    // 该版本文档的访问URL, 只有修改记录的版本为null
+    private String fileUrl;
+    // 该版本修改记录压缩包的访问URL, 没有时为null
+    private String changesUrl;
+
+    // 格式化的版本时间，用于前端显示
+    public String getVersionTimeFormatted() {
+        return DisplayTime.format(version);
+    }
+}
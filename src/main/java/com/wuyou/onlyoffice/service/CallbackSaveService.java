@@ -0,0 +1,622 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.CoordinationConfig;
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.SaveQueueConfig;
+import cn.superlu.onlyoffice.dto.FileInfoDTO;
+import cn.superlu.onlyoffice.dto.SaveTaskDTO;
+import cn.superlu.onlyoffice.dto.VersionDTO;
+import com.alibaba.fastjson.JSON;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回调保存队列
+ * <p>
+ * 回调线程只负责入队, 下载和上传由固定数量的工作线程完成。
+ * 每个任务在入队前写入本地日志, 成功后删除, 服务重启时重新入队。
+ * 同一文档同时只有一个任务在执行, 执行期间到达的任务只保留最新的一个。
+ * 多节点部署时执行前还要取得该文档的保存锁, 其他节点正在保存时稍后重试,
+ * 锁中记录的已保存版本用来丢弃其他节点已经保存过的旧版本。
+ * 保存期间定期续期保存锁, 写入文档前再确认一次锁仍由本节点持有, 锁已丢失时放弃写入, 按失败重试。
+ * <p>
+ * 恢复历史版本也作为一个保存任务经过同样的排队和加锁, 执行时在MinIO内部复制历史版本,
+ * 成功后同样记录已保存版本, 之后到达的更早的回调保存会被丢弃。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CallbackSaveService {
+
+    // 空闲文档状态的保留时间
+    private static final long SLOT_IDLE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final MinioService minioService;
+
+    private final FileIndexService fileIndexService;
+
+    private final SaveQueueConfig saveQueueConfig;
+
+    private final MeterRegistry meterRegistry;
+
+    private final OnlyOfficeMetrics metrics;
+
+    private final IoThreadFactory ioThreadFactory;
+
+    private final DocumentServerClient documentServerClient;
+
+    private final VersionService versionService;
+
+    private final UploadPipeline uploadPipeline;
+
+    private final CoordinationBackend coordinationBackend;
+
+    private final CoordinationConfig coordinationConfig;
+
+    private final ThumbnailService thumbnailService;
+
+    // 每个文档键的保存状态
+    private final ConcurrentHashMap<String, KeySlot> slots = new ConcurrentHashMap<>();
+
+    // 任务序号, 版本相同时用来区分先后
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+
+    // 任务ID -> 等待结果的调用方(恢复历史版本)
+    private final ConcurrentHashMap<String, CompletableFuture<Boolean>> waiters = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor workerPool;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private Path journalPath;
+
+    private Timer waitTimer;
+
+    private Counter rejectedCounter;
+
+    private Counter coalescedCounter;
+
+    private Counter staleCounter;
+
+    private Counter lockBusyCounter;
+
+    @PostConstruct
+    public void init() throws IOException {
+        journalPath = Paths.get(saveQueueConfig.getJournalDir());
+        Files.createDirectories(journalPath.resolve("failed"));
+
+        // 开启虚拟线程时工作线程也是虚拟线程, 线程数只用来限制同时保存的文档数
+        workerPool = new ThreadPoolExecutor(saveQueueConfig.getWorkers(), saveQueueConfig.getWorkers(),
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(saveQueueConfig.getQueueCapacity()),
+                ioThreadFactory.threadFactory("onlyoffice-save-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "onlyoffice-save-retry"));
+        retryScheduler.scheduleWithFixedDelay(this::evictIdleSlots, 10, 10, TimeUnit.MINUTES);
+
+        Gauge.builder("onlyoffice.save.queue.depth", workerPool, pool -> pool.getQueue().size())
+                .description("等待保存的任务数")
+                .register(meterRegistry);
+        Gauge.builder("onlyoffice.save.active", workerPool, ThreadPoolExecutor::getActiveCount)
+                .description("正在执行的保存任务数")
+                .register(meterRegistry);
+        Gauge.builder("onlyoffice.save.documents", slots, ConcurrentHashMap::size)
+                .description("有保存状态的文档数")
+                .register(meterRegistry);
+        waitTimer = Timer.builder("onlyoffice.save.wait")
+                .description("保存任务从入队到开始执行的等待时间")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("onlyoffice.save.rejected")
+                .description("队列已满被拒绝的保存任务数")
+                .register(meterRegistry);
+        coalescedCounter = Counter.builder("onlyoffice.save.coalesced")
+                .description("被同一文档更新的任务合并掉的保存任务数")
+                .register(meterRegistry);
+        staleCounter = Counter.builder("onlyoffice.save.stale")
+                .description("版本早于已保存版本而被丢弃的保存任务数")
+                .register(meterRegistry);
+
+        lockBusyCounter = Counter.builder("onlyoffice.save.lock.busy")
+                .description("文档正在其他节点保存而推迟的次数")
+                .register(meterRegistry);
+
+        recoverJournal();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        retryScheduler.shutdownNow();
+        workerPool.shutdown();
+        // 未完成的任务仍保留在日志中, 下次启动时恢复
+        if (!workerPool.awaitTermination(30, TimeUnit.SECONDS)) {
+            workerPool.shutdownNow();
+        }
+    }
+
+    /**
+     * 提交保存任务
+     *
+     * @param key        文档键
+     * @param url        编辑后文档的下载地址
+     * @param changesUrl 修改记录压缩包的下载地址, 没有时为null
+     * @param fileType   文件类型
+     * @param status     回调状态
+     * @param version         文档版本(回调中的lastsave时间戳), 用于丢弃过期的保存
+     * @param documentVersion 保存后沿用的文档键版本(强制保存), 为null时保存后文档键改变
+     * @return 是否入队成功, 队列已满时返回false
+     */
+    public boolean submit(String key, String url, String changesUrl, String fileType, int status, long version,
+                          String documentVersion) {
+        // 队列已满时直接拒绝, 让Document Server稍后重试
+        if (queueFull(key)) {
+            return false;
+        }
+
+        SaveTaskDTO task = newTask();
+        task.setKey(key);
+        task.setUrl(url);
+        task.setChangesUrl(changesUrl);
+        task.setFileType(fileType);
+        task.setStatus(status);
+        task.setVersion(version);
+        task.setDocumentVersion(documentVersion);
+
+        try {
+            writeJournal(task);
+        } catch (IOException e) {
+            log.error("写入保存任务日志失败: {}", e.getMessage(), e);
+            return false;
+        }
+        accept(task);
+        return true;
+    }
+
+    /**
+     * 把文档恢复到指定的历史版本, 恢复后的内容同时记为一个新版本
+     * <p>
+     * 和回调保存使用同一个队列和保存锁, 恢复后文档键改变。版本号排在已知的最新版本之后:
+     * 提交时取本节点已保存和排队中的版本、已记录的历史版本中最大的加一, 执行时如果锁中记录的已保存版本更新,
+     * 再调整到它之后。版本号来自Document Server的lastsave, 不能用本机时钟, 两台机器的时钟偏差会让恢复被当作过期丢弃
+     * 或覆盖更新的保存。
+     *
+     * @param fileKey 文件键
+     * @param version 历史版本号
+     * @return 恢复结果, 版本不存在、队列已满、被更新的保存取代或多次失败时为false;
+     * 其他节点长时间持有保存锁时可能要等待多次重试, 调用方应自行限制等待时间
+     */
+    public CompletableFuture<Boolean> restore(String fileKey, long version) {
+        VersionDTO target = versionService.find(fileKey, version);
+        if (target == null || queueFull(fileKey)) {
+            return CompletableFuture.completedFuture(false);
+        }
+
+        SaveTaskDTO task = newTask();
+        task.setKey(fileKey);
+        task.setSourceObject(versionService.objectName(target));
+        task.setFileType(target.getFileType());
+        long latest = Math.max(target.getVersion(), Math.max(knownVersion(fileKey), versionService.latest(fileKey)));
+        task.setVersion(latest + 1);
+        task.setDocumentVersion("r" + task.getVersion());
+
+        try {
+            writeJournal(task);
+        } catch (IOException e) {
+            log.error("写入保存任务日志失败: {}", e.getMessage(), e);
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        waiters.put(task.getTaskId(), result);
+        accept(task);
+        return result;
+    }
+
+    /**
+     * 本节点已保存、正在执行和等待中的最新版本
+     */
+    private long knownVersion(String key) {
+        long[] version = {Long.MIN_VALUE};
+        slots.computeIfPresent(key, (k, slot) -> {
+            version[0] = slot.savedVersion;
+            if (slot.running != null) {
+                version[0] = Math.max(version[0], slot.running.getVersion());
+            }
+            if (slot.pending != null) {
+                version[0] = Math.max(version[0], slot.pending.getVersion());
+            }
+            return slot;
+        });
+        return version[0];
+    }
+
+    private boolean queueFull(String key) {
+        if (workerPool.getQueue().remainingCapacity() == 0) {
+            rejectedCounter.increment();
+            log.warn("保存队列已满, 拒绝任务: key={}", key);
+            return true;
+        }
+        return false;
+    }
+
+    private SaveTaskDTO newTask() {
+        SaveTaskDTO task = new SaveTaskDTO();
+        task.setTaskId(UUID.randomUUID().toString().replace("-", ""));
+        task.setSequence(sequence.incrementAndGet());
+        task.setEnqueueTime(System.currentTimeMillis());
+        return task;
+    }
+
+    /**
+     * 按文档键协调保存任务: 没有任务在执行时立即投递,
+     * 否则只保留最新的等待任务, 比已保存版本旧的任务直接丢弃
+     */
+    private void accept(SaveTaskDTO task) {
+        SaveTaskDTO[] dropped = new SaveTaskDTO[1];
+        boolean[] stale = new boolean[1];
+        boolean[] start = new boolean[1];
+        slots.compute(task.getKey(), (k, slot) -> {
+            if (slot == null) {
+                slot = new KeySlot();
+            }
+            slot.lastActive = System.currentTimeMillis();
+            if (task.getVersion() < slot.savedVersion) {
+                dropped[0] = task;
+                stale[0] = true;
+            } else if (slot.running == null) {
+                slot.running = task;
+                start[0] = true;
+            } else if (slot.pending == null || isNewer(task, slot.pending)) {
+                dropped[0] = slot.pending;
+                slot.pending = task;
+            } else {
+                dropped[0] = task;
+            }
+            return slot;
+        });
+
+        if (dropped[0] != null) {
+            // 比已保存版本旧的是过期任务, 其他是被更新的任务合并掉的
+            (stale[0] ? staleCounter : coalescedCounter).increment();
+            finish(dropped[0], false);
+        }
+        if (start[0]) {
+            dispatch(task);
+        }
+    }
+
+    private void dispatch(SaveTaskDTO task) {
+        task.setEnqueueTime(System.currentTimeMillis());
+        try {
+            workerPool.execute(() -> execute(task));
+        } catch (RejectedExecutionException e) {
+            // 任务已记录在日志中, 稍后重新投递
+            scheduleRetry(task, saveQueueConfig.getRetryDelayMillis());
+        }
+    }
+
+    private void execute(SaveTaskDTO task) {
+        waitTimer.record(System.currentTimeMillis() - task.getEnqueueTime(), TimeUnit.MILLISECONDS);
+
+        CoordinationBackend.SaveLock lock = coordinationBackend.tryLock(task.getKey());
+        if (lock == null) {
+            lockBusyCounter.increment();
+            if (task.getLockBusyRetries() < saveQueueConfig.getMaxLockBusyRetries()) {
+                // 其他节点正在保存该文档, 继续占用该文档, 稍后重试, 不计入尝试次数
+                task.setLockBusyRetries(task.getLockBusyRetries() + 1);
+                scheduleRetry(task, saveQueueConfig.getRetryDelayMillis());
+                return;
+            }
+            // 锁长时间被占用(如其他节点的保存卡住), 按一次失败处理, 最终进入失败目录
+            log.warn("保存锁长时间被其他节点持有: key={}, 推迟 {} 次", task.getKey(), task.getLockBusyRetries());
+            task.setLockBusyRetries(0);
+            task.setAttempts(task.getAttempts() + 1);
+            complete(task, false);
+            return;
+        }
+        if (task.getSourceObject() != null && task.getVersion() <= lock.getSavedVersion()) {
+            // 恢复历史版本排在其他节点已保存的版本之后
+            task.setVersion(lock.getSavedVersion() + 1);
+            task.setDocumentVersion("r" + task.getVersion());
+        }
+        if (task.getVersion() < lock.getSavedVersion()) {
+            // 其他节点已保存了更新的版本
+            coordinationBackend.release(lock, lock.getSavedVersion());
+            staleCounter.increment();
+            // 恢复历史版本时告知调用方没有生效
+            notifyWaiter(task, false);
+            complete(task, true);
+            return;
+        }
+
+        task.setAttempts(task.getAttempts() + 1);
+        task.setLockBusyRetries(0);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean saved = false;
+        long renewInterval = Math.max(1, coordinationConfig.getLockLeaseMillis() / 3);
+        ScheduledFuture<?> renewal = retryScheduler.scheduleWithFixedDelay(() -> coordinationBackend.renew(lock),
+                renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+        try {
+            saved = save(task, lock);
+        } finally {
+            renewal.cancel(false);
+            coordinationBackend.release(lock, saved ? task.getVersion() : lock.getSavedVersion());
+        }
+        sample.stop(meterRegistry.timer("onlyoffice.save.duration", "result", saved ? "success" : "failure",
+                "file_type", OnlyOfficeMetrics.fileTypeTag(task.getFileType())));
+
+        complete(task, saved);
+    }
+
+    /**
+     * 任务结束后更新文档状态, 并启动该文档等待中的最新任务
+     */
+    private void complete(SaveTaskDTO task, boolean saved) {
+        boolean retry = !saved && task.getAttempts() < saveQueueConfig.getMaxAttempts();
+        SaveTaskDTO[] next = new SaveTaskDTO[1];
+        SaveTaskDTO[] dropped = new SaveTaskDTO[1];
+        slots.compute(task.getKey(), (k, slot) -> {
+            if (slot == null) {
+                slot = new KeySlot();
+            }
+            slot.lastActive = System.currentTimeMillis();
+            if (saved) {
+                slot.savedVersion = Math.max(slot.savedVersion, task.getVersion());
+            }
+            // 失败且没有更新的任务时继续占用该文档, 等待重试
+            if (retry && slot.pending == null) {
+                return slot;
+            }
+            slot.running = null;
+            if (slot.pending != null) {
+                SaveTaskDTO pending = slot.pending;
+                slot.pending = null;
+                if (pending.getVersion() < slot.savedVersion) {
+                    dropped[0] = pending;
+                } else {
+                    slot.running = pending;
+                    next[0] = pending;
+                }
+            }
+            return slot;
+        });
+
+        if (saved) {
+            finish(task, true);
+        } else if (next[0] != null) {
+            // 已有更新的版本等待保存, 失败的旧版本不再重试
+            coalescedCounter.increment();
+            finish(task, false);
+        } else if (retry) {
+            try {
+                writeJournal(task);
+            } catch (IOException e) {
+                log.error("更新保存任务日志失败: {}", e.getMessage(), e);
+            }
+            scheduleRetry(task, saveQueueConfig.getRetryDelayMillis() * task.getAttempts());
+        } else {
+            log.error("保存任务多次失败, 放弃: key={}, attempts={}", task.getKey(), task.getAttempts());
+            moveToFailed(task);
+            notifyWaiter(task, false);
+        }
+
+        if (dropped[0] != null) {
+            staleCounter.increment();
+            finish(dropped[0], false);
+        }
+        if (next[0] != null) {
+            dispatch(next[0]);
+        }
+    }
+
+    private void scheduleRetry(SaveTaskDTO task, long delay) {
+        retryScheduler.schedule(() -> dispatch(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 清理长时间空闲的文档状态
+     */
+    private void evictIdleSlots() {
+        long deadline = System.currentTimeMillis() - SLOT_IDLE_MILLIS;
+        for (String key : slots.keySet()) {
+            slots.computeIfPresent(key, (k, slot) ->
+                    slot.running == null && slot.pending == null && slot.lastActive < deadline ? null : slot);
+        }
+    }
+
+    /**
+     * 下载编辑后的文档并写入MinIO; 恢复历史版本时在MinIO内部复制
+     * <p>
+     * 在调用线程(保存工作线程)上等待响应头并上传, 不占用HTTP客户端的线程,
+     * 同时进行的上传数受保存工作线程数限制。
+     *
+     * @param task 保存任务
+     * @param lock 保存锁, 写入前确认仍持有; 为null时不检查
+     * @return 是否保存成功
+     */
+    boolean save(SaveTaskDTO task, CoordinationBackend.SaveLock lock) {
+        String objectName = task.getKey() + "." + task.getFileType();
+        if (task.getSourceObject() != null) {
+            return copy(task, lock, objectName);
+        }
+
+        // 响应头到达后直接把Document Server的响应流写入MinIO并替换原文件, 不落地临时文件
+        long start = System.nanoTime();
+        try {
+            DocumentServerClient.Download download = documentServerClient.download(task.getUrl()).join();
+            return store(task, lock, objectName, download, start);
+        } catch (RuntimeException e) {
+            log.error("下载编辑后的文档失败: key={}, {}", task.getKey(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private boolean store(SaveTaskDTO task, CoordinationBackend.SaveLock lock, String objectName,
+                          DocumentServerClient.Download download, long start) {
+        try (download; OnlyOfficeMetrics.ReadTimingInputStream stream = new OnlyOfficeMetrics.ReadTimingInputStream(download.getBody())) {
+            // 建立连接和等待响应头的时间也算作下载
+            long connectNanos = System.nanoTime() - start;
+            // 按内容确定文件类型, Document Server返回的不是文档(如错误页面)时不覆盖原文件
+            UploadContext upload = uploadPipeline.process(objectName, null, stream, download.getContentLength());
+            if (upload.isRejected()) {
+                log.error("编辑后的文档类型不正确: key={}, {}", task.getKey(), upload.getRejectReason());
+                return false;
+            }
+            // 下载可能持续很久, 替换原文件前确认锁没有被其他节点接管
+            if (!stillLocked(task, lock)) {
+                return false;
+            }
+            if (!minioService.uploadStream(upload.getStream(), download.getContentLength(), objectName, upload.getContentType(),
+                    task.getDocumentVersion())) {
+                return false;
+            }
+            long downloadNanos = connectNanos + stream.getReadNanos();
+            metrics.recordTransfer(task.getFileType(), downloadNanos, System.nanoTime() - start - downloadNanos);
+            stored(task, objectName);
+            return true;
+        } catch (IOException e) {
+            log.error("下载编辑后的文档失败: key={}, {}", task.getKey(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 恢复历史版本: 在MinIO内部把历史版本复制为当前文档, 使用任务指定的文档版本
+     */
+    private boolean copy(SaveTaskDTO task, CoordinationBackend.SaveLock lock, String objectName) {
+        if (!stillLocked(task, lock)) {
+            return false;
+        }
+        if (!minioService.copyFile(task.getSourceObject(), objectName, task.getDocumentVersion())) {
+            return false;
+        }
+        stored(task, objectName);
+        return true;
+    }
+
+    /**
+     * 文档写入后更新索引, 记录历史版本并提交缩略图任务
+     */
+    private void stored(SaveTaskDTO task, String objectName) {
+        FileInfoDTO indexed = fileIndexService.refresh(objectName);
+        versionService.record(task, objectName);
+        if (indexed != null) {
+            thumbnailService.submit(objectName, indexed.getVersion(), ThumbnailService.Priority.INTERACTIVE);
+        }
+    }
+
+    private boolean stillLocked(SaveTaskDTO task, CoordinationBackend.SaveLock lock) {
+        if (lock == null || coordinationBackend.renew(lock)) {
+            return true;
+        }
+        log.error("保存锁已丢失, 放弃写入: key={}", task.getKey());
+        return false;
+    }
+
+    /**
+     * 启动时把上次未完成的任务重新入队
+     */
+    private void recoverJournal() {
+        List<SaveTaskDTO> tasks = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(journalPath, "*.json")) {
+            for (Path file : files) {
+                tasks.add(JSON.parseObject(Files.readString(file, StandardCharsets.UTF_8), SaveTaskDTO.class));
+            }
+        } catch (Exception e) {
+            log.error("恢复保存任务日志失败: {}", e.getMessage(), e);
+        }
+        // 按版本顺序恢复, 同一文档只会保留最新的任务
+        tasks.sort((a, b) -> isNewer(a, b) ? 1 : isNewer(b, a) ? -1 : 0);
+        tasks.forEach(this::accept);
+        if (!tasks.isEmpty()) {
+            log.info("从日志恢复保存任务: {} 个", tasks.size());
+        }
+    }
+
+    private void writeJournal(SaveTaskDTO task) throws IOException {
+        // 先写临时文件再原子替换, 避免重启时读到半个文件
+        Path tmp = journalPath.resolve(task.getTaskId() + ".tmp");
+        Files.writeString(tmp, JSON.toJSONString(task), StandardCharsets.UTF_8);
+        Files.move(tmp, journalPath.resolve(task.getTaskId() + ".json"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 任务结束(保存成功、被合并或丢弃): 删除日志并通知等待结果的调用方
+     */
+    private void finish(SaveTaskDTO task, boolean saved) {
+        deleteJournal(task);
+        notifyWaiter(task, saved);
+    }
+
+    private void notifyWaiter(SaveTaskDTO task, boolean saved) {
+        CompletableFuture<Boolean> waiter = waiters.remove(task.getTaskId());
+        if (waiter != null) {
+            waiter.complete(saved);
+        }
+    }
+
+    private void deleteJournal(SaveTaskDTO task) {
+        try {
+            Files.deleteIfExists(journalPath.resolve(task.getTaskId() + ".json"));
+        } catch (IOException e) {
+            log.warn("删除保存任务日志失败: {}", e.getMessage());
+        }
+    }
+
+    private void moveToFailed(SaveTaskDTO task) {
+        try {
+            Files.move(journalPath.resolve(task.getTaskId() + ".json"),
+                    journalPath.resolve("failed").resolve(task.getTaskId() + ".json"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            log.warn("移动失败任务日志失败: {}", e.getMessage());
+        }
+    }
+
+    private static boolean isNewer(SaveTaskDTO a, SaveTaskDTO b) {
+        if (a.getVersion() != b.getVersion()) {
+            return a.getVersion() > b.getVersion();
+        }
+        return a.getSequence() > b.getSequence();
+    }
+
+    /**
+     * 单个文档的保存状态
+     */
+    private static class KeySlot {
+        // 正在执行(或等待重试)的任务
+        private SaveTaskDTO running;
+        // 等待执行的最新任务
+        private SaveTaskDTO pending;
+        // 已写入MinIO的最新版本
+        private long savedVersion = Long.MIN_VALUE;
+        // 最后活跃时间
+        private long lastActive;
+    }
+}
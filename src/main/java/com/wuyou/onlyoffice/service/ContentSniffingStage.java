@@ -0,0 +1,179 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.UploadConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypeException;
+import org.apache.tika.mime.MimeTypes;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * 按内容检测文件类型
+ * <p>
+ * Tika通过mark/reset只读取数据流开头的少量数据, 结合文件名确定类型, 检测后数据流回到开头。
+ * 检测出的类型作为对象的Content-Type保存, 不在允许列表中的类型拒绝上传。
+ * <p>
+ * tika-core的检测器不读取ZIP包的内容, 对OOXML文档只能认出是OOXML容器, 具体是docx、xlsx还是pptx完全取自文件名。
+ * 因此检测结果是ZIP或OOXML时, 再从包中读取 [Content_Types].xml, 按主文档部件的类型确定,
+ * 读取的数据同样通过mark/reset回退, 最多读取 onlyoffice.upload.container-sniff-bytes 字节;
+ * 读不到时只保留容器类型, 由允许列表拒绝。
+ */
+@Order(0)
+@Component
+@RequiredArgsConstructor
+public class ContentSniffingStage implements UploadStage {
+
+    // 不支持mark时包装的缓冲区大小, 检测需要更多数据时会自动扩大
+    private static final int SNIFF_BUFFER_SIZE = 8 * 1024;
+
+    private static final Detector DETECTOR = TikaConfig.getDefaultConfig().getDetector();
+
+    private static final MimeTypes MIME_TYPES = MimeTypes.getDefaultMimeTypes();
+
+    private static final MediaTypeRegistry REGISTRY = MIME_TYPES.getMediaTypeRegistry();
+
+    // Tika按文件头认出OOXML但无法确定具体类型时的容器类型
+    private static final MediaType OOXML_CONTAINER = MediaType.application("x-tika-ooxml");
+
+    private static final String CONTENT_TYPES_ENTRY = "[Content_Types].xml";
+
+    // [Content_Types].xml最多读取的长度
+    private static final int CONTENT_TYPES_MAX_BYTES = 256 * 1024;
+
+    private static final Pattern MAIN_PART_TYPE = Pattern.compile("ContentType\\s*=\\s*[\"']([^\"']+\\.main\\+xml)[\"']",
+            Pattern.CASE_INSENSITIVE);
+
+    // 主文档部件的类型(小写) -> 文档类型
+    private static final Map<String, String> OOXML_MAIN_TYPES = Map.ofEntries(
+            Map.entry("application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml",
+                    "application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
+            Map.entry("application/vnd.openxmlformats-officedocument.wordprocessingml.template.main+xml",
+                    "application/vnd.openxmlformats-officedocument.wordprocessingml.template"),
+            Map.entry("application/vnd.ms-word.document.macroenabled.main+xml",
+                    "application/vnd.ms-word.document.macroenabled.12"),
+            Map.entry("application/vnd.ms-word.template.macroenabledtemplate.main+xml",
+                    "application/vnd.ms-word.template.macroenabled.12"),
+            Map.entry("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml",
+                    "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"),
+            Map.entry("application/vnd.openxmlformats-officedocument.spreadsheetml.template.main+xml",
+                    "application/vnd.openxmlformats-officedocument.spreadsheetml.template"),
+            Map.entry("application/vnd.ms-excel.sheet.macroenabled.main+xml",
+                    "application/vnd.ms-excel.sheet.macroenabled.12"),
+            Map.entry("application/vnd.ms-excel.template.macroenabled.main+xml",
+                    "application/vnd.ms-excel.template.macroenabled.12"),
+            Map.entry("application/vnd.openxmlformats-officedocument.presentationml.presentation.main+xml",
+                    "application/vnd.openxmlformats-officedocument.presentationml.presentation"),
+            Map.entry("application/vnd.openxmlformats-officedocument.presentationml.template.main+xml",
+                    "application/vnd.openxmlformats-officedocument.presentationml.template"),
+            Map.entry("application/vnd.openxmlformats-officedocument.presentationml.slideshow.main+xml",
+                    "application/vnd.openxmlformats-officedocument.presentationml.slideshow"),
+            Map.entry("application/vnd.ms-powerpoint.presentation.macroenabled.main+xml",
+                    "application/vnd.ms-powerpoint.presentation.macroenabled.12"),
+            Map.entry("application/vnd.ms-powerpoint.template.macroenabled.main+xml",
+                    "application/vnd.ms-powerpoint.template.macroenabled.12"),
+            Map.entry("application/vnd.ms-powerpoint.slideshow.macroenabled.main+xml",
+                    "application/vnd.ms-powerpoint.slideshow.macroenabled.12"));
+
+    private final UploadConfig uploadConfig;
+
+    private Set<String> allowedTypes;
+
+    @Override
+    public void process(UploadContext context) throws IOException {
+        InputStream stream = context.getStream();
+        if (!stream.markSupported()) {
+            stream = new BufferedInputStream(stream, SNIFF_BUFFER_SIZE);
+            context.setStream(stream);
+        }
+        Metadata metadata = new Metadata();
+        if (context.getFileName() != null) {
+            metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, context.getFileName());
+        }
+        MediaType type = DETECTOR.detect(stream, metadata).getBaseType();
+        if (type.equals(MediaType.APPLICATION_ZIP) || REGISTRY.isInstanceOf(type, OOXML_CONTAINER)) {
+            // OOXML的具体类型按包内容确定, 不采用文件名推断的结果
+            MediaType ooxmlType = ooxmlType(stream);
+            if (ooxmlType != null) {
+                type = ooxmlType;
+            } else if (!type.equals(MediaType.APPLICATION_ZIP)) {
+                type = OOXML_CONTAINER;
+            }
+        }
+        String contentType = type.toString();
+        context.setContentType(contentType);
+        context.setExtension(extension(contentType));
+
+        if (!allowedTypes.contains(contentType)) {
+            context.reject("不支持的文件类型: " + contentType);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        allowedTypes = new HashSet<>(uploadConfig.getAllowedTypes());
+    }
+
+    /**
+     * 按 [Content_Types].xml 中主文档部件的类型确定OOXML文档的类型, 读取后数据流回到开头
+     *
+     * @return 文档类型, 不是OOXML、超出读取长度或类型未知时返回null
+     */
+    private MediaType ooxmlType(InputStream stream) throws IOException {
+        int limit = uploadConfig.getContainerSniffBytes();
+        stream.mark(limit);
+        try {
+            BoundedInputStream bounded = new BoundedInputStream(stream, limit);
+            bounded.setPropagateClose(false);
+            ZipInputStream zip = new ZipInputStream(bounded);
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                if (CONTENT_TYPES_ENTRY.equals(entry.getName())) {
+                    String contentTypes = new String(zip.readNBytes(CONTENT_TYPES_MAX_BYTES), StandardCharsets.UTF_8);
+                    Matcher matcher = MAIN_PART_TYPE.matcher(contentTypes);
+                    while (matcher.find()) {
+                        String type = OOXML_MAIN_TYPES.get(matcher.group(1).toLowerCase(Locale.ROOT));
+                        if (type != null) {
+                            return MediaType.parse(type);
+                        }
+                    }
+                    return null;
+                }
+            }
+            return null;
+        } catch (IOException e) {
+            // 不是有效的ZIP包, 或 [Content_Types].xml 不在读取范围内
+            return null;
+        } finally {
+            stream.reset();
+        }
+    }
+
+    private static String extension(String contentType) {
+        try {
+            String extension = MIME_TYPES.forName(contentType).getExtension();
+            return extension.startsWith(".") ? extension.substring(1) : extension;
+        } catch (MimeTypeException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package cn.superlu.onlyoffice.service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 多节点协调
+ * <p>
+ * 提供按文档键的保存锁和对象变更通知, 由 onlyoffice.coordination.backend 选择实现:
+ * 单节点部署使用 {@link LocalCoordinationBackend}, 多节点共用一个MinIO时使用 {@link MinioCoordinationBackend}。
+ * 节点内的并发仍由各服务自己处理, 这里只解决节点之间的冲突。
+ */
+public interface CoordinationBackend {
+
+    /**
+     * 尝试获取文档的保存锁, 不等待
+     *
+     * @param key 文档键
+     * @return 锁, 其他节点正在保存或协调存储不可用时返回null
+     */
+    SaveLock tryLock(String key);
+
+    /**
+     * 释放保存锁并记录已保存的版本, 之后获取锁的节点据此丢弃更旧的保存
+     *
+     * @param lock         保存锁
+     * @param savedVersion 已保存的最新版本, 没有保存成功时传 {@link SaveLock#getSavedVersion()}
+     */
+    void release(SaveLock lock, long savedVersion);
+
+    /**
+     * 延长保存锁的租期, 同时确认锁仍由本次加锁持有; 保存期间定期调用, 写入文档前再确认一次
+     *
+     * @param lock 保存锁
+     * @return 是否仍持有锁, 锁已被其他节点接管或协调存储不可用时返回false, 此时不能再写入文档
+     */
+    boolean renew(SaveLock lock);
+
+    /**
+     * 通知其他节点对象已被覆盖或删除, 本节点的缓存由调用方自己处理
+     *
+     * @param objectName 对象名称
+     */
+    void publish(String objectName);
+
+    /**
+     * 订阅其他节点产生的对象变更
+     *
+     * @param listener 监听器, 在通知线程上调用, 不能阻塞太久
+     */
+    void subscribe(ChangeListener listener);
+
+    /**
+     * 对象变更监听器
+     */
+    interface ChangeListener {
+
+        /**
+         * 对象被其他节点覆盖或删除
+         *
+         * @param objectName 对象名称
+         */
+        void changed(String objectName);
+
+        /**
+         * 可能遗漏了变更(如通知连接断开后重连), 应丢弃所有缓存
+         */
+        default void reset() {
+        }
+    }
+
+    /**
+     * 保存锁
+     */
+    final class SaveLock {
+        private final String key;
+        private volatile String token;
+        private final long savedVersion;
+        private final ReentrantLock updateLock = new ReentrantLock();
+
+        public SaveLock(String key, String token, long savedVersion) {
+            this.key = key;
+            this.token = token;
+            this.savedVersion = savedVersion;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 本次加锁的凭据, 释放时用来确认锁没有被其他节点接管
+         */
+        public String getToken() {
+            return token;
+        }
+
+        /**
+         * 续期后更新凭据
+         */
+        public void setToken(String token) {
+            this.token = token;
+        }
+
+        /**
+         * 加锁时已保存的最新版本, 没有记录时为Long.MIN_VALUE
+         */
+        public long getSavedVersion() {
+            return savedVersion;
+        }
+
+        /**
+         * 续期和释放都以上一次写入后的凭据为条件, 同一个锁的更新需要依次进行
+         */
+        public ReentrantLock getUpdateLock() {
+            return updateLock;
+        }
+    }
+}
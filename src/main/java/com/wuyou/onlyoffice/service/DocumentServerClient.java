@@ -0,0 +1,172 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.DocumentServerClientConfig;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.springframework.stereotype.Service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 从Document Server下载编辑后的文档, 调用文档转换接口
+ * <p>
+ * 所有请求共用一个HTTP客户端, 对同一主机的重复请求复用已有连接。
+ * 响应头到达后即返回数据流, 由调用方边读边写入MinIO; 下载超过最长时间时关闭数据流, 读取方随即收到IOException。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DocumentServerClient {
+
+    private final HttpClient documentServerHttpClient;
+
+    private final DocumentServerClientConfig clientConfig;
+
+    private ScheduledExecutorService timeoutScheduler;
+
+    @PostConstruct
+    public void init() {
+        timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "document-server-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timeoutScheduler.shutdownNow();
+    }
+
+    /**
+     * 异步下载文档
+     *
+     * @param url 文档地址
+     * @return 响应头到达后完成, 地址无效、超时或非200响应时异常完成
+     */
+    public CompletableFuture<Download> download(String url) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(clientConfig.getResponseTimeoutMillis()))
+                    .GET()
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return documentServerHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        closeQuietly(response.body());
+                        throw new CompletionException(new IOException("Document Server返回状态码 " + response.statusCode()));
+                    }
+                    long contentLength = response.headers().firstValueAsLong("Content-Length").orElse(-1);
+                    return new Download(response.body(), contentLength);
+                });
+    }
+
+    /**
+     * 异步发送JSON请求, 如文档转换接口
+     *
+     * @param url  接口地址
+     * @param body 请求体
+     * @return 响应体, 地址无效、超时或非200响应时异常完成
+     */
+    public CompletableFuture<String> postJson(String url, String body) {
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofMillis(clientConfig.getResponseTimeoutMillis()))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                    .build();
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return documentServerHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(response -> {
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(new IOException("Document Server返回状态码 " + response.statusCode()));
+                    }
+                    return response.body();
+                });
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // 只是释放连接
+        }
+    }
+
+    /**
+     * 一次下载的响应, 关闭时释放连接
+     */
+    public class Download implements Closeable {
+
+        private final InputStream body;
+
+        private final long contentLength;
+
+        private final ScheduledFuture<?> timeout;
+
+        private volatile boolean timedOut;
+
+        Download(InputStream body, long contentLength) {
+            // 被中断的数据流会返回-1, 这里改为抛出异常, 避免长度未知时把不完整的文档当作读取完毕
+            this.body = new ProxyInputStream(body) {
+                @Override
+                protected void afterRead(int n) throws IOException {
+                    if (timedOut) {
+                        throw new IOException("下载文档超时");
+                    }
+                }
+            };
+            this.contentLength = contentLength;
+            this.timeout = timeoutScheduler.schedule(() -> {
+                log.warn("下载文档超过 {} ms, 中断下载", clientConfig.getTransferTimeoutMillis());
+                timedOut = true;
+                closeQuietly(this.body);
+            }, clientConfig.getTransferTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * @return 文档数据流
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * @return 文档长度, 未知时为-1
+         */
+        public long getContentLength() {
+            return contentLength;
+        }
+
+        @Override
+        public void close() {
+            timeout.cancel(false);
+            closeQuietly(body);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.hutool.jwt.JWT;
+import cn.hutool.jwt.signers.JWTSigner;
+import cn.hutool.jwt.signers.JWTSignerUtil;
+import cn.superlu.onlyoffice.config.OnlyOfficeConfig;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 发给Document Server的JWT签名, 编辑器配置和文档转换请求共用
+ * <p>
+ * 签名密钥只在启动时解析一次, 未配置密钥时不签名。
+ */
+@Component
+@RequiredArgsConstructor
+public class DocumentServerSigner {
+
+    private final OnlyOfficeConfig onlyOfficeConfig;
+
+    // HMAC实例不是线程安全的, 签名时加锁; 编辑器配置有缓存, 签名次数很少
+    private final ReentrantLock signLock = new ReentrantLock();
+
+    // 未配置密钥时为null, 不签名
+    private JWTSigner signer;
+
+    @PostConstruct
+    public void init() {
+        String apiKey = onlyOfficeConfig.getApiKey();
+        if (apiKey != null && !apiKey.isBlank()) {
+            signer = JWTSignerUtil.hs256(apiKey.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return 是否配置了签名密钥
+     */
+    public boolean isEnabled() {
+        return signer != null;
+    }
+
+    /**
+     * 签名请求内容
+     *
+     * @param payload 请求内容
+     * @return JWT, 未配置密钥时返回null
+     */
+    public String sign(Map<String, Object> payload) {
+        if (signer == null) {
+            return null;
+        }
+        signLock.lock();
+        try {
+            return JWT.create().addPayloads(payload).setSigner(signer).sign();
+        } finally {
+            signLock.unlock();
+        }
+    }
+}
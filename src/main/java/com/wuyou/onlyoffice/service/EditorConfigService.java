@@ -0,0 +1,180 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.OnlyOfficeConfig;
+import cn.superlu.onlyoffice.dto.FileInfoDTO;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 编辑器配置
+ * <p>
+ * 按文件键生成前端打开编辑器所需的完整配置, 文档信息从文件索引中取, 不访问MinIO。
+ * 文档键由文件键和版本(MinIO中对象的ETag, 各节点相同)组成, 文档保存后版本变化, Document Server不会再使用旧的缓存;
+ * 强制保存(状态6)时编辑会话还在继续, 保存时沿用回调中的版本, 文档键不变。
+ * 回调中的文档键需要先用 {@link #fileKeyOf(String)} 还原为文件键。
+ * <p>
+ * 生成的配置按文件键和打开模式缓存, 版本变化或收到保存回调时失效。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class EditorConfigService {
+
+    // 文档键中文件键和版本的分隔符, 文件键本身不含该字符
+    private static final char VERSION_SEPARATOR = '_';
+
+    // 可以沿用的版本: Document Server文档键允许的字符
+    private static final Pattern VERSION_PATTERN = Pattern.compile("[0-9A-Za-z.=-]{1,64}");
+
+    private static final Set<String> CELL_TYPES = Set.of("xls", "xlsx", "ods", "csv");
+
+    private static final Set<String> SLIDE_TYPES = Set.of("ppt", "pptx", "odp");
+
+    private final OnlyOfficeConfig onlyOfficeConfig;
+
+    private final FileIndexService fileIndexService;
+
+    private final MeterRegistry meterRegistry;
+
+    private final DocumentServerSigner documentServerSigner;
+
+    // 文件键:模式 -> 已生成的配置
+    private final ConcurrentHashMap<String, CachedConfig> cache = new ConcurrentHashMap<>();
+
+    private Counter hitCounter;
+
+    private Counter missCounter;
+
+    @PostConstruct
+    public void init() {
+        hitCounter = Counter.builder("onlyoffice.config.cache").tag("result", "hit")
+                .description("编辑器配置缓存命中次数").register(meterRegistry);
+        missCounter = Counter.builder("onlyoffice.config.cache").tag("result", "miss")
+                .description("编辑器配置缓存未命中次数").register(meterRegistry);
+    }
+
+    /**
+     * 获取文档的编辑器配置
+     *
+     * @param fileKey 文件键
+     * @param edit    是否以编辑模式打开, 否则只读
+     * @return 编辑器配置, 文件不存在时返回null
+     */
+    public Map<String, Object> get(String fileKey, boolean edit) {
+        String cacheKey = fileKey + ":" + (edit ? "edit" : "view");
+        FileInfoDTO file = fileIndexService.find(fileKey);
+        if (file == null) {
+            cache.remove(cacheKey);
+            return null;
+        }
+        CachedConfig cached = cache.get(cacheKey);
+        if (cached != null && cached.version.equals(file.getVersion())) {
+            hitCounter.increment();
+            return cached.config;
+        }
+        missCounter.increment();
+        Map<String, Object> config = build(file, edit);
+        cache.put(cacheKey, new CachedConfig(file.getVersion(), config));
+        return config;
+    }
+
+    /**
+     * 文档保存后使缓存的配置失效
+     *
+     * @param fileKey 文件键
+     */
+    public void invalidate(String fileKey) {
+        cache.remove(fileKey + ":edit");
+        cache.remove(fileKey + ":view");
+    }
+
+    /**
+     * 从回调中的文档键还原文件键
+     *
+     * @param documentKey 文档键, 形如 文件键_版本
+     * @return 文件键, 不带版本时原样返回
+     */
+    public static String fileKeyOf(String documentKey) {
+        int index = documentKey.lastIndexOf(VERSION_SEPARATOR);
+        return index > 0 ? documentKey.substring(0, index) : documentKey;
+    }
+
+    /**
+     * 从回调中的文档键取出版本
+     *
+     * @param documentKey 文档键, 形如 文件键_版本
+     * @return 版本, 不带版本或格式不对时返回null
+     */
+    public static String versionOf(String documentKey) {
+        int index = documentKey.lastIndexOf(VERSION_SEPARATOR);
+        if (index <= 0) {
+            return null;
+        }
+        String version = documentKey.substring(index + 1);
+        return VERSION_PATTERN.matcher(version).matches() ? version : null;
+    }
+
+    private Map<String, Object> build(FileInfoDTO file, boolean edit) {
+        Map<String, Object> permissions = new LinkedHashMap<>();
+        permissions.put("edit", edit);
+        permissions.put("download", true);
+        permissions.put("print", true);
+
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("fileType", file.getFileType());
+        document.put("key", file.getFileKey() + VERSION_SEPARATOR + file.getVersion());
+        document.put("title", file.getFileName());
+        document.put("url", onlyOfficeConfig.getFileUrlPrefix() + file.getFileName());
+        document.put("permissions", permissions);
+
+        Map<String, Object> editorConfig = new LinkedHashMap<>();
+        editorConfig.put("mode", edit ? "edit" : "view");
+        editorConfig.put("callbackUrl", onlyOfficeConfig.getCallbackUrl());
+
+        Map<String, Object> config = new LinkedHashMap<>();
+        config.put("documentType", documentType(file.getFileType()));
+        config.put("document", document);
+        config.put("editorConfig", editorConfig);
+        if (documentServerSigner.isEnabled()) {
+            config.put("token", documentServerSigner.sign(config));
+        }
+        config.put("documentServerUrl", onlyOfficeConfig.getDocumentServerUrl());
+        return Collections.unmodifiableMap(config);
+    }
+
+    private static String documentType(String fileType) {
+        String lower = fileType.toLowerCase(Locale.ROOT);
+        if (CELL_TYPES.contains(lower)) {
+            return "cell";
+        }
+        if (SLIDE_TYPES.contains(lower)) {
+            return "slide";
+        }
+        return "pdf".equals(lower) ? "pdf" : "word";
+    }
+
+    /**
+     * 缓存的配置, 版本是生成时文档的版本
+     */
+    private static final class CachedConfig {
+        private final String version;
+        private final Map<String, Object> config;
+
+        private CachedConfig(String version, Map<String, Object> config) {
+            this.version = version;
+            this.config = config;
+        }
+    }
+}
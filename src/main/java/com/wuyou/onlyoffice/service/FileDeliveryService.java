@@ -0,0 +1,241 @@
+package cn.superlu.onlyoffice.service;
+
+import io.minio.StatObjectResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 文档下载
+ * <p>
+ * 供Document Server拉取文档, 支持Range和ETag/If-None-Match。
+ * 命中内存缓存时直接写出, 命中磁盘缓存时由Tomcat sendfile或FileChannel.transferTo直接发送, 否则从MinIO转发。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FileDeliveryService {
+
+    // Tomcat sendfile相关的请求属性
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // 从MinIO转发时的缓冲区大小
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    private final MinioService minioService;
+
+    private final LocalFileCache localFileCache;
+
+    /**
+     * 输出文档内容
+     *
+     * @param objectName 对象名称
+     * @param request    HTTP请求
+     * @param response   HTTP响应
+     * @throws IOException IO异常
+     */
+    public void serve(String objectName, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        LocalFileCache.CachedFile cached = localFileCache.get(objectName);
+        if (cached != null) {
+            serveCached(cached, request, response);
+            return;
+        }
+
+        StatObjectResponse stat = minioService.statFile(objectName);
+        if (stat == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String etag = stat.etag();
+        long size = stat.size();
+        long lastModified = stat.lastModified().toInstant().toEpochMilli();
+        if (notModified(etag, request, response)) {
+            return;
+        }
+
+        // 整体读取且大小合适时先写入本地缓存, 之后的请求直接从磁盘发送
+        long[] range = parseRange(request.getHeader(HttpHeaders.RANGE), size);
+        if (range == null && localFileCache.accepts(size)) {
+            try {
+                cached = localFileCache.getOrLoad(objectName, etag, stat.contentType(), lastModified, size, () -> {
+                    InputStream in = minioService.downloadFile(objectName);
+                    if (in == null) {
+                        throw new IOException("从MinIO下载文件失败: " + objectName);
+                    }
+                    return in;
+                });
+            } catch (IOException e) {
+                log.warn("加载文档到本地缓存失败: {}", e.getMessage());
+                response.sendError(HttpServletResponse.SC_BAD_GATEWAY);
+                return;
+            }
+            serveCached(cached, request, response);
+            return;
+        }
+
+        if (range != null && range.length == 0) {
+            rangeNotSatisfiable(size, response);
+            return;
+        }
+        long start = range == null ? 0 : range[0];
+        long length = range == null ? size : range[1] - range[0] + 1;
+        writeHeaders(response, etag, stat.contentType(), lastModified, start, length, size, range != null);
+        if (length == 0 || "HEAD".equals(request.getMethod())) {
+            return;
+        }
+        try (InputStream in = minioService.downloadFile(objectName, start, length)) {
+            if (in == null) {
+                response.sendError(HttpServletResponse.SC_BAD_GATEWAY);
+                return;
+            }
+            OutputStream out = response.getOutputStream();
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+    }
+
+    private void serveCached(LocalFileCache.CachedFile cached, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (notModified(cached.getEtag(), request, response)) {
+            return;
+        }
+        long size = cached.getSize();
+        long[] range = parseRange(request.getHeader(HttpHeaders.RANGE), size);
+        if (range != null && range.length == 0) {
+            rangeNotSatisfiable(size, response);
+            return;
+        }
+        long start = range == null ? 0 : range[0];
+        long length = range == null ? size : range[1] - range[0] + 1;
+        writeHeaders(response, cached.getEtag(), cached.getContentType(), cached.getLastModified(), start, length, size, range != null);
+        if (length == 0 || "HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (cached.isInMemory()) {
+            response.getOutputStream().write(cached.getContent(), (int) start, (int) length);
+            return;
+        }
+
+        // Tomcat支持sendfile时交给连接器直接从文件发送
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, cached.getPath().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + length);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(cached.getPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, out);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+        }
+    }
+
+    private boolean notModified(String etag, HttpServletRequest request, HttpServletResponse response) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+        String quoted = quote(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if ("*".equals(value) || quoted.equals(value)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                response.setHeader(HttpHeaders.ETAG, quoted);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeHeaders(HttpServletResponse response, String etag, String contentType, long lastModified,
+                              long start, long length, long size, boolean partial) {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (etag != null) {
+            response.setHeader(HttpHeaders.ETAG, quote(etag));
+        }
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
+        response.setContentType(contentType == null ? "application/octet-stream" : contentType);
+        response.setContentLengthLong(length);
+        if (partial) {
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (start + length - 1) + "/" + size);
+        }
+    }
+
+    private void rangeNotSatisfiable(long size, HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+    }
+
+    /**
+     * 解析单区间Range头, 多区间请求按整体返回处理
+     *
+     * @param header Range请求头
+     * @param size   文件大小
+     * @return null表示返回整个文件, 空数组表示区间无效, 否则为[起始, 结束]
+     */
+    private long[] parseRange(String header, long size) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                // bytes=-N 表示最后N个字节
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            if (start >= size || start > end) {
+                return new long[0];
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String quote(String etag) {
+        return etag.startsWith("\"") ? etag : "\"" + etag + "\"";
+    }
+}
@@ -0,0 +1,345 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.dto.DisplayTime;
+import cn.superlu.onlyoffice.dto.FileInfoDTO;
+import cn.superlu.onlyoffice.dto.FilePageDTO;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import io.minio.StatObjectResponse;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * 文件元数据索引
+ * <p>
+ * 启动时从MinIO加载一次, 之后由上传、删除和回调保存实时更新,
+ * 其他节点的改动通过协调通知更新, 并定期全量扫描校正。文件列表接口直接从索引分页, 不访问MinIO。
+ * 索引项只保存对象名、实际存储数据的对象名、大小、毫秒时间戳和版本, 排序直接比较时间戳;
+ * 去重模式下预签名URL直接对索引中记录的数据块签名, URL缓存未命中时也不需要读取指针; 导出全部文件时逐项写出JSON, 不生成文件信息对象。
+ * <p>
+ * 索引中的值都取自MinIO(写入后重新读取对象元数据), 不使用本节点的时间, 各节点对同一对象记录的版本相同。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class FileIndexService {
+
+    // 每页默认条数
+    private static final int DEFAULT_PAGE_SIZE = 50;
+
+    // 每页最大条数
+    private static final int MAX_PAGE_SIZE = 500;
+
+    // 按最后修改时间降序, 时间相同按对象名排序
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingLong((Entry e) -> -e.lastModified)
+            .thenComparing(e -> e.objectName);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final MinioService minioService;
+
+    private final CoordinationBackend coordinationBackend;
+
+    private final ThumbnailService thumbnailService;
+
+    // 对象名 -> 索引项
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // 文件键 -> 索引项
+    private final ConcurrentHashMap<String, Entry> byKey = new ConcurrentHashMap<>();
+
+    // 按时间排序的索引项
+    private final ConcurrentSkipListSet<Entry> sorted = new ConcurrentSkipListSet<>(ORDER);
+
+    // 对象名 -> 移除时间, 扫描期间被删除的对象可能仍在扫描结果中, 校正时不重新加入; 每次校正后清理扫描开始前的记录
+    private final ConcurrentHashMap<String, Long> removedAt = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        coordinationBackend.subscribe(new CoordinationBackend.ChangeListener() {
+            @Override
+            public void changed(String objectName) {
+                refresh(objectName);
+            }
+
+            @Override
+            public void reset() {
+                reconcile();
+            }
+        });
+    }
+
+    /**
+     * 记录新上传或被覆盖的对象
+     *
+     * @param objectName   对象名称
+     * @param size         文件大小
+     * @param lastModified 最后修改时间（时间戳）
+     * @param version      MinIO中对象的版本
+     * @param dataName     实际存储数据的对象名, 去重模式下是数据块的对象名
+     */
+    public void put(String objectName, long size, long lastModified, String version, String dataName) {
+        Entry entry = new Entry(objectName, size, lastModified, version, dataName);
+        entries.compute(objectName, (k, old) -> {
+            removedAt.remove(objectName);
+            if (old != null) {
+                sorted.remove(old);
+            }
+            sorted.add(entry);
+            byKey.put(entry.fileKey, entry);
+            return entry;
+        });
+    }
+
+    /**
+     * 移除已删除的对象
+     *
+     * @param objectName 对象名称
+     */
+    public void remove(String objectName) {
+        entries.compute(objectName, (k, old) -> {
+            removedAt.put(objectName, System.currentTimeMillis());
+            if (old != null) {
+                sorted.remove(old);
+                byKey.remove(old.fileKey, old);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 按文件键查找文件, 不访问MinIO
+     *
+     * @param fileKey 文件键
+     * @return 文件信息, 不存在时返回null
+     */
+    public FileInfoDTO find(String fileKey) {
+        Entry entry = byKey.get(fileKey);
+        return entry == null ? null : toFileInfo(entry);
+    }
+
+    /**
+     * 按游标分页获取文件列表
+     *
+     * @param cursor 上一页返回的游标, 第一页传null
+     * @param limit  每页条数
+     * @return 文件分页
+     */
+    public FilePageDTO page(String cursor, Integer limit) {
+        int size = limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+        Entry from = decodeCursor(cursor);
+        Iterator<Entry> iterator = (from == null ? sorted : sorted.tailSet(from, false)).iterator();
+
+        List<FileInfoDTO> files = new ArrayList<>(size);
+        Entry last = null;
+        while (files.size() < size && iterator.hasNext()) {
+            last = iterator.next();
+            files.add(toFileInfo(last));
+        }
+
+        FilePageDTO page = new FilePageDTO();
+        page.setFiles(files);
+        page.setNextCursor(last != null && iterator.hasNext() ? encodeCursor(last) : null);
+        page.setTotal(entries.size());
+        return page;
+    }
+
+    /**
+     * 按列表顺序把全部文件写成JSON数组, 边遍历索引边写出, 不生成文件信息对象和完整列表, 内存占用和文件数无关
+     * <p>
+     * 不包含预签名的文件URL和缩略图URL(只给出是否有缩略图): 文件数超过URL缓存容量时每次导出都要重新签名,
+     * 签名的开销远大于导出本身。需要访问文件时通过下载接口或分页接口获取。
+     *
+     * @param out 输出流, 写完后不关闭
+     * @return 写出的文件数
+     * @throws IOException 写出失败(如客户端断开)
+     */
+    public int writeAll(OutputStream out) throws IOException {
+        int count = 0;
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.writeStartArray();
+            for (Entry entry : sorted) {
+                String objectName = entry.objectName;
+                String fileKey = entry.fileKey;
+                int dotIndex = objectName.lastIndexOf('.');
+                generator.writeStartObject();
+                generator.writeStringField("fileName", objectName);
+                generator.writeStringField("fileType", dotIndex > 0 ? objectName.substring(dotIndex + 1) : "");
+                generator.writeStringField("fileKey", fileKey);
+                generator.writeNumberField("fileSize", entry.size);
+                generator.writeNumberField("uploadTime", entry.lastModified);
+                generator.writeBooleanField("hasThumbnail", thumbnailService.hasThumbnail(fileKey));
+                generator.writeStringField("version", entry.version);
+                generator.writeStringField("uploadTimeFormatted", entry.formattedTime());
+                generator.writeEndObject();
+                count++;
+            }
+            generator.writeEndArray();
+        }
+        return count;
+    }
+
+    /**
+     * 按MinIO中的当前状态更新单个对象, 索引只包含根目录下的文件
+     * <p>
+     * 本节点写入对象后也通过这里更新索引, 和其他节点收到通知后读到的是同一个版本。
+     *
+     * @param objectName 对象名称
+     * @return 更新后的文件信息, 对象不存在、不在根目录或读取失败时返回null(读取失败时索引不变)
+     */
+    public FileInfoDTO refresh(String objectName) {
+        if (objectName.indexOf('/') >= 0) {
+            return null;
+        }
+        StatObjectResponse stat;
+        try {
+            stat = minioService.statObject(objectName);
+        } catch (Exception e) {
+            log.warn("读取对象元数据失败, 等待下次校正: {}, {}", objectName, e.getMessage());
+            return null;
+        }
+        if (stat == null) {
+            remove(objectName);
+            return null;
+        }
+        put(objectName, minioService.sizeOf(stat), minioService.lastModifiedOf(stat), minioService.versionOf(stat),
+                minioService.dataNameOf(stat));
+        Entry entry = entries.get(objectName);
+        return entry == null ? null : toFileInfo(entry);
+    }
+
+    /**
+     * 全量扫描存储桶校正索引, 启动时执行一次, 之后定期执行
+     */
+    @Scheduled(initialDelay = 0, fixedDelayString = "${onlyoffice.index.reconcile-interval-millis:300000}")
+    public void reconcile() {
+        long scanStart = System.currentTimeMillis();
+        List<Item> items;
+        try {
+            items = minioService.listObjects();
+        } catch (Exception e) {
+            log.error("扫描存储桶校正文件索引失败: {}", e.getMessage(), e);
+            return;
+        }
+
+        Set<String> seen = new HashSet<>(items.size() * 2);
+        for (Item item : items) {
+            String objectName = item.objectName();
+            seen.add(objectName);
+            long size = minioService.sizeOf(item);
+            String version = minioService.versionOf(item);
+            String dataName = minioService.dataNameOf(item);
+            Entry current = entries.get(objectName);
+            // 扫描开始后才删除的对象, 列出时还在, 不能重新加入
+            if (current == null && removedAt.getOrDefault(objectName, Long.MIN_VALUE) >= scanStart) {
+                continue;
+            }
+            // 只在对象被替换后更新, 版本相同的索引项保持不变; 强制保存沿用版本, 数据块改变时同样更新
+            if (current == null || current.size != size || !version.equals(current.version) || !dataName.equals(current.dataName)) {
+                put(objectName, size, minioService.lastModifiedOf(item), version, dataName);
+            }
+        }
+        // 扫描期间新增的对象不在结果中, 只移除扫描开始前就存在的索引项
+        for (Entry entry : entries.values()) {
+            if (!seen.contains(entry.objectName) && entry.indexedAt < scanStart) {
+                remove(entry.objectName);
+            }
+        }
+        // 扫描开始前的删除已经反映在扫描结果中
+        removedAt.values().removeIf(time -> time < scanStart);
+        log.info("文件索引校正完成: {} 个文件, 耗时 {} ms", entries.size(), System.currentTimeMillis() - scanStart);
+    }
+
+    private FileInfoDTO toFileInfo(Entry entry) {
+        String objectName = entry.objectName;
+        int dotIndex = objectName.lastIndexOf('.');
+
+        FileInfoDTO fileInfo = new FileInfoDTO();
+        fileInfo.setFileName(objectName);
+        fileInfo.setFileUrl(minioService.getFileUrl(objectName, entry.dataName));
+        fileInfo.setFileType(dotIndex > 0 ? objectName.substring(dotIndex + 1) : "");
+        fileInfo.setFileKey(entry.fileKey);
+        fileInfo.setFileSize(entry.size);
+        fileInfo.setUploadTime(entry.lastModified);
+        fileInfo.setThumbnailUrl(thumbnailService.getThumbnailUrl(fileInfo.getFileKey()));
+        fileInfo.setVersion(entry.version);
+        return fileInfo;
+    }
+
+    private static String fileKey(String objectName) {
+        int dotIndex = objectName.lastIndexOf('.');
+        return dotIndex > 0 ? objectName.substring(0, dotIndex) : objectName;
+    }
+
+    private String encodeCursor(Entry entry) {
+        String raw = entry.lastModified + ":" + entry.objectName;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Entry decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            return new Entry(raw.substring(sep + 1), 0, Long.parseLong(raw.substring(0, sep)), null, null);
+        } catch (RuntimeException e) {
+            log.warn("无效的分页游标: {}", cursor);
+            return null;
+        }
+    }
+
+    /**
+     * 索引项, 创建后不可变, 更新时整体替换
+     */
+    private static final class Entry {
+        private final String objectName;
+        private final String fileKey;
+        private final long size;
+        private final long lastModified;
+        private final String version;
+        // 实际存储数据的对象名, 去重模式下是数据块的对象名
+        private final String dataName;
+        private final long indexedAt = System.currentTimeMillis();
+        // 格式化的时间, 第一次导出时生成后复用; 并发时最多重复生成一次
+        private String formattedTime;
+
+        private Entry(String objectName, long size, long lastModified, String version, String dataName) {
+            this.objectName = objectName;
+            this.fileKey = fileKey(objectName);
+            this.size = size;
+            this.lastModified = lastModified;
+            this.version = version;
+            this.dataName = dataName;
+        }
+
+        private String formattedTime() {
+            String formatted = formattedTime;
+            if (formatted == null) {
+                formatted = DisplayTime.format(lastModified);
+                formattedTime = formatted;
+            }
+            return formatted;
+        }
+    }
+}
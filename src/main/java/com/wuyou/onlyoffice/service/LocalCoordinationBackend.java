@@ -0,0 +1,47 @@
+package cn.superlu.onlyoffice.service;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 单节点协调: 锁只在进程内有效, 没有其他节点需要通知
+ * <p>
+ * 已保存的版本由保存队列自己记录, 锁释放后不再保留状态。
+ */
+@Component
+@ConditionalOnProperty(prefix = "onlyoffice.coordination", name = "backend", havingValue = "local", matchIfMissing = true)
+public class LocalCoordinationBackend implements CoordinationBackend {
+
+    // 文档键 -> 持有锁的凭据
+    private final ConcurrentHashMap<String, String> locks = new ConcurrentHashMap<>();
+
+    @Override
+    public SaveLock tryLock(String key) {
+        String token = UUID.randomUUID().toString();
+        return locks.putIfAbsent(key, token) == null ? new SaveLock(key, token, Long.MIN_VALUE) : null;
+    }
+
+    @Override
+    public void release(SaveLock lock, long savedVersion) {
+        locks.remove(lock.getKey(), lock.getToken());
+    }
+
+    @Override
+    public boolean renew(SaveLock lock) {
+        // 进程内的锁没有租期, 只确认仍由本次加锁持有
+        return lock.getToken().equals(locks.get(lock.getKey()));
+    }
+
+    @Override
+    public void publish(String objectName) {
+        // 单节点, 本节点的缓存已由调用方处理
+    }
+
+    @Override
+    public void subscribe(ChangeListener listener) {
+        // 单节点, 不会有其他节点的变更
+    }
+}
@@ -0,0 +1,462 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.DocumentCacheConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 本地文档缓存
+ * <p>
+ * 分两级: 小文档整体保存在堆内存中, 大文档写入本地磁盘, 两级各自有总大小上限, 超过时按最久未访问淘汰。
+ * 缓存项记录加载时对象的ETag, 同一对象同一ETag的并发加载只从MinIO下载一次, 其他请求等待结果。
+ * 对象被覆盖或删除时由MinioService使其失效。
+ */
+@Slf4j
+@Component
+public class LocalFileCache {
+
+    // 刚被访问过的文件可能正在被sendfile发送, 淘汰时跳过
+    private static final long EVICT_GRACE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    // 加载键中对象名和ETag的分隔符
+    private static final char LOAD_KEY_SEPARATOR = '\n';
+
+    // 缓存写入的文件名: 缓存文件为去掉横线的UUID, 写入中的临时文件为UUID加.tmp
+    private static final Pattern CACHE_FILE_NAME = Pattern.compile("[0-9a-f]{32}|[0-9a-f]{8}(-[0-9a-f]{4}){3}-[0-9a-f]{12}\\.tmp");
+
+    private final DocumentCacheConfig cacheConfig;
+
+    private final Path cacheDir;
+
+    // 对象名 -> 磁盘缓存项
+    private final ConcurrentHashMap<String, CachedFile> entries = new ConcurrentHashMap<>();
+
+    // 对象名 -> 内存缓存项, 按访问顺序排列, 由heapLock保护
+    private final LinkedHashMap<String, CachedFile> heapEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock heapLock = new ReentrantLock();
+
+    // 对象名+ETag -> 正在进行的加载
+    private final ConcurrentHashMap<String, CompletableFuture<CachedFile>> loading = new ConcurrentHashMap<>();
+
+    // 失效或被替换的磁盘文件, 可能仍在发送, 过了宽限期再删除
+    private final ConcurrentLinkedQueue<CachedFile> orphans = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong totalBytes = new AtomicLong();
+
+    private final AtomicLong heapBytes = new AtomicLong();
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter evictionCounter;
+
+    private final Counter heapHitCounter;
+
+    private final Counter heapMissCounter;
+
+    private final Counter heapEvictionCounter;
+
+    private final Counter sharedLoadCounter;
+
+    public LocalFileCache(DocumentCacheConfig cacheConfig, MeterRegistry meterRegistry) throws IOException {
+        this.cacheConfig = cacheConfig;
+        this.cacheDir = Paths.get(cacheConfig.getDir());
+        // 缓存内容没有持久化索引, 启动时清空; 缓存目录可以配置到共用目录, 只删除缓存自己写入的文件
+        if (Files.exists(cacheDir)) {
+            try (var files = Files.list(cacheDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (Files.isRegularFile(file) && CACHE_FILE_NAME.matcher(file.getFileName().toString()).matches()) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+        Files.createDirectories(cacheDir);
+
+        this.hitCounter = Counter.builder("onlyoffice.document.cache").tag("tier", "disk").tag("result", "hit")
+                .description("本地文档缓存命中次数").register(meterRegistry);
+        this.missCounter = Counter.builder("onlyoffice.document.cache").tag("tier", "disk").tag("result", "miss")
+                .description("本地文档缓存未命中次数").register(meterRegistry);
+        this.evictionCounter = Counter.builder("onlyoffice.document.cache.evictions").tag("tier", "disk")
+                .description("本地文档缓存淘汰次数").register(meterRegistry);
+        Gauge.builder("onlyoffice.document.cache.bytes", totalBytes, AtomicLong::get).tag("tier", "disk")
+                .description("本地文档缓存占用字节数").register(meterRegistry);
+        this.heapHitCounter = Counter.builder("onlyoffice.document.cache").tag("tier", "heap").tag("result", "hit")
+                .description("内存文档缓存命中次数").register(meterRegistry);
+        this.heapMissCounter = Counter.builder("onlyoffice.document.cache").tag("tier", "heap").tag("result", "miss")
+                .description("内存文档缓存未命中次数").register(meterRegistry);
+        this.heapEvictionCounter = Counter.builder("onlyoffice.document.cache.evictions").tag("tier", "heap")
+                .description("内存文档缓存淘汰次数").register(meterRegistry);
+        Gauge.builder("onlyoffice.document.cache.bytes", heapBytes, AtomicLong::get).tag("tier", "heap")
+                .description("内存文档缓存占用字节数").register(meterRegistry);
+        this.sharedLoadCounter = Counter.builder("onlyoffice.document.cache.shared.loads")
+                .description("等待其他请求加载同一文档的次数").register(meterRegistry);
+        Gauge.builder("onlyoffice.document.cache.hit.ratio", this, LocalFileCache::hitRatio)
+                .description("文档缓存命中率(两级合计)").register(meterRegistry);
+    }
+
+    /**
+     * 查找缓存, 先查内存再查磁盘
+     *
+     * @param objectName 对象名称
+     * @return 缓存项, 未缓存时返回null
+     */
+    public CachedFile get(String objectName) {
+        CachedFile cached = getFromHeap(objectName);
+        if (cached != null) {
+            heapHitCounter.increment();
+            return cached;
+        }
+        heapMissCounter.increment();
+        cached = getFromDisk(objectName);
+        if (cached == null) {
+            missCounter.increment();
+            return null;
+        }
+        hitCounter.increment();
+        return cached;
+    }
+
+    /**
+     * 是否应该缓存该大小的文件
+     *
+     * @param size 文件大小
+     * @return 是否缓存
+     */
+    public boolean accepts(long size) {
+        return cacheConfig.isEnabled() && size >= 0 && size <= cacheConfig.getMaxEntryBytes();
+    }
+
+    /**
+     * 读取缓存, 未缓存时加载并写入缓存
+     * <p>
+     * 同一对象同一ETag同时只有一个请求在加载, 其他请求等待并共用结果;
+     * 加载期间对象被覆盖或删除时, 结果仍返回给等待的请求, 但不放入缓存。
+     *
+     * @param objectName   对象名称
+     * @param etag         对象ETag
+     * @param contentType  内容类型
+     * @param lastModified 最后修改时间（时间戳）
+     * @param size         文件大小, 不超过内存缓存单项上限时保存在内存中
+     * @param loader       打开对象数据流
+     * @return 缓存项
+     * @throws IOException 加载失败
+     */
+    public CachedFile getOrLoad(String objectName, String etag, String contentType, long lastModified, long size,
+                                Loader loader) throws IOException {
+        // 调用方通常刚查过一次, 这里不再计入命中统计
+        CachedFile cached = getFromHeap(objectName);
+        if (cached == null) {
+            cached = getFromDisk(objectName);
+        }
+        if (cached != null && Objects.equals(cached.getEtag(), etag)) {
+            return cached;
+        }
+        String loadKey = objectName + LOAD_KEY_SEPARATOR + etag;
+        CompletableFuture<CachedFile> flight = new CompletableFuture<>();
+        CompletableFuture<CachedFile> existing = loading.putIfAbsent(loadKey, flight);
+        if (existing != null) {
+            sharedLoadCounter.increment();
+            return await(existing);
+        }
+        try {
+            CachedFile loaded;
+            try (InputStream in = loader.open()) {
+                loaded = size <= cacheConfig.getHeapMaxEntryBytes() && cacheConfig.getHeapMaxBytes() > 0
+                        ? new CachedFile(in.readAllBytes(), etag, contentType, lastModified)
+                        : write(in, etag, contentType, lastModified);
+            }
+            if (loading.remove(loadKey, flight)) {
+                register(objectName, loaded);
+            } else if (!loaded.isInMemory()) {
+                orphans.add(loaded);
+            }
+            flight.complete(loaded);
+            return loaded;
+        } catch (IOException | RuntimeException e) {
+            loading.remove(loadKey, flight);
+            flight.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 使对象的缓存失效, 正在进行的加载结果也不再放入缓存
+     *
+     * @param objectName 对象名称
+     */
+    public void invalidate(String objectName) {
+        String prefix = objectName + LOAD_KEY_SEPARATOR;
+        loading.keySet().removeIf(key -> key.startsWith(prefix));
+        CachedFile old = entries.remove(objectName);
+        if (old != null) {
+            retire(old);
+        }
+        removeFromHeap(objectName);
+    }
+
+    /**
+     * 清空缓存, 可能遗漏了其他节点的变更时使用
+     */
+    public void invalidateAll() {
+        for (String objectName : new ArrayList<>(entries.keySet())) {
+            invalidate(objectName);
+        }
+        loading.clear();
+        heapLock.lock();
+        try {
+            heapEntries.clear();
+            heapBytes.set(0);
+        } finally {
+            heapLock.unlock();
+        }
+    }
+
+    private CachedFile getFromHeap(String objectName) {
+        heapLock.lock();
+        try {
+            return heapEntries.get(objectName);
+        } finally {
+            heapLock.unlock();
+        }
+    }
+
+    private CachedFile getFromDisk(String objectName) {
+        CachedFile cached = entries.get(objectName);
+        if (cached == null || !Files.exists(cached.getPath())) {
+            return null;
+        }
+        cached.lastAccess = System.currentTimeMillis();
+        return cached;
+    }
+
+    private void removeFromHeap(String objectName) {
+        heapLock.lock();
+        try {
+            CachedFile old = heapEntries.remove(objectName);
+            if (old != null) {
+                heapBytes.addAndGet(-old.getSize());
+            }
+        } finally {
+            heapLock.unlock();
+        }
+    }
+
+    private void register(String objectName, CachedFile cached) {
+        if (cached.isInMemory()) {
+            // 内存和磁盘中只保留一份
+            CachedFile old = entries.remove(objectName);
+            if (old != null) {
+                retire(old);
+            }
+            putToHeap(objectName, cached);
+            return;
+        }
+        removeFromHeap(objectName);
+        CachedFile old = entries.put(objectName, cached);
+        totalBytes.addAndGet(cached.getSize());
+        if (old != null) {
+            retire(old);
+        }
+        evictIfNeeded();
+    }
+
+    private void putToHeap(String objectName, CachedFile cached) {
+        heapLock.lock();
+        try {
+            CachedFile old = heapEntries.put(objectName, cached);
+            heapBytes.addAndGet(cached.getSize() - (old == null ? 0 : old.getSize()));
+            // 按访问顺序从最久未访问的开始淘汰, 内存中的数据不受正在发送的影响
+            Iterator<CachedFile> iterator = heapEntries.values().iterator();
+            while (heapBytes.get() > cacheConfig.getHeapMaxBytes() && iterator.hasNext()) {
+                CachedFile eldest = iterator.next();
+                iterator.remove();
+                heapBytes.addAndGet(-eldest.getSize());
+                heapEvictionCounter.increment();
+            }
+        } finally {
+            heapLock.unlock();
+        }
+    }
+
+    private CachedFile write(InputStream in, String etag, String contentType, long lastModified) throws IOException {
+        Path tmp = cacheDir.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            long size = Files.copy(in, tmp);
+            Path target = cacheDir.resolve(UUID.randomUUID().toString().replace("-", ""));
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return new CachedFile(target, size, etag, contentType, lastModified);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void evictIfNeeded() {
+        long now = System.currentTimeMillis();
+        deleteOrphans(now);
+        if (totalBytes.get() <= cacheConfig.getMaxBytes()) {
+            return;
+        }
+        List<Map.Entry<String, CachedFile>> candidates = new ArrayList<>(entries.entrySet());
+        candidates.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (Map.Entry<String, CachedFile> candidate : candidates) {
+            if (totalBytes.get() <= cacheConfig.getMaxBytes()) {
+                break;
+            }
+            if (now - candidate.getValue().lastAccess < EVICT_GRACE_MILLIS) {
+                continue;
+            }
+            if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                evictionCounter.increment();
+                discard(candidate.getValue());
+            }
+        }
+    }
+
+    /**
+     * 删除超过宽限期的失效文件
+     */
+    private void deleteOrphans(long now) {
+        orphans.removeIf(orphan -> {
+            if (now - orphan.lastAccess < EVICT_GRACE_MILLIS) {
+                return false;
+            }
+            delete(orphan);
+            return true;
+        });
+    }
+
+    /**
+     * 移出缓存的磁盘文件可能仍在发送, 不计入缓存容量, 过了宽限期再删除
+     */
+    private void retire(CachedFile cached) {
+        totalBytes.addAndGet(-cached.getSize());
+        orphans.add(cached);
+        deleteOrphans(System.currentTimeMillis());
+    }
+
+    private void discard(CachedFile cached) {
+        totalBytes.addAndGet(-cached.getSize());
+        delete(cached);
+    }
+
+    private void delete(CachedFile cached) {
+        try {
+            Files.deleteIfExists(cached.getPath());
+        } catch (IOException e) {
+            log.warn("删除缓存文件失败: {}", e.getMessage());
+        }
+    }
+
+    private double hitRatio() {
+        double hits = heapHitCounter.count() + hitCounter.count();
+        double total = hits + missCounter.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private static CachedFile await(CompletableFuture<CachedFile> flight) throws IOException {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+    }
+
+    /**
+     * 打开对象数据流
+     */
+    @FunctionalInterface
+    public interface Loader {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * 缓存项, 内存中的缓存项只有内容, 磁盘上的只有文件路径
+     */
+    public static final class CachedFile {
+        private final Path path;
+        private final byte[] content;
+        private final long size;
+        private final String etag;
+        private final String contentType;
+        private final long lastModified;
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        private CachedFile(Path path, long size, String etag, String contentType, long lastModified) {
+            this.path = path;
+            this.content = null;
+            this.size = size;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+        }
+
+        private CachedFile(byte[] content, String etag, String contentType, long lastModified) {
+            this.path = null;
+            this.content = content;
+            this.size = content.length;
+            this.etag = etag;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+        }
+
+        public boolean isInMemory() {
+            return content != null;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public byte[] getContent() {
+            return content;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.CoordinationConfig;
+import cn.superlu.onlyoffice.config.MinioConfig;
+import cn.superlu.onlyoffice.config.MultipartMinioClient;
+import com.alibaba.fastjson.JSONObject;
+import io.minio.CloseableIterator;
+import io.minio.GetObjectArgs;
+import io.minio.GetObjectResponse;
+import io.minio.ListenBucketNotificationArgs;
+import io.minio.MinioClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.PutObjectArgs;
+import io.minio.Result;
+import io.minio.errors.ErrorResponseException;
+import io.minio.messages.Event;
+import io.minio.messages.NotificationRecords;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于MinIO的多节点协调, 不需要额外部署其他组件
+ * <p>
+ * 保存锁是 {前缀}locks/{文档键}.json 对象, 内容为持有者、租期和已保存的版本,
+ * 通过条件写入(If-None-Match/If-Match)保证同一时刻只有一个节点能改写它, 需要MinIO支持条件写入。
+ * 保存期间持有者定期续期, 持有者宕机时锁在租期结束后可被其他节点接管。
+ * 同一个锁的续期和释放按顺序进行, 每次条件写入都以上一次写入后的ETag为条件。
+ * <p>
+ * 对象变更通过存储桶通知获得, 每个节点监听整个存储桶的创建和删除事件。
+ * 本节点的MinIO客户端在User-Agent中带有节点标识, 据此跳过本节点自己产生的事件。
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "onlyoffice.coordination", name = "backend", havingValue = "minio")
+@RequiredArgsConstructor
+public class MinioCoordinationBackend implements CoordinationBackend {
+
+    // 写入User-Agent的应用名, 后面跟节点标识
+    private static final String APP_NAME = "onlyoffice";
+
+    private static final String[] EVENTS = {"s3:ObjectCreated:*", "s3:ObjectRemoved:*"};
+
+    private static final String LOCK_CONTENT_TYPE = "application/json";
+
+    private final MinioClient minioClient;
+
+    private final MultipartMinioClient multipartMinioClient;
+
+    private final MinioConfig minioConfig;
+
+    private final CoordinationConfig coordinationConfig;
+
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private String nodeId;
+
+    private Thread listenerThread;
+
+    private volatile CloseableIterator<Result<NotificationRecords>> records;
+
+    private volatile boolean running = true;
+
+    @PostConstruct
+    public void init() throws Exception {
+        nodeId = coordinationConfig.getNodeId();
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        }
+        minioClient.setAppInfo(APP_NAME, nodeId);
+        multipartMinioClient.setAppInfo(APP_NAME, nodeId);
+
+        listenerThread = new Thread(this::listen, "onlyoffice-coordination-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+        log.info("多节点协调已启用: 节点 {}", nodeId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        CloseableIterator<Result<NotificationRecords>> current = records;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (Exception e) {
+                log.debug("关闭存储桶通知失败: {}", e.getMessage());
+            }
+        }
+        listenerThread.interrupt();
+    }
+
+    @Override
+    public SaveLock tryLock(String key) {
+        String lockName = lockName(key);
+        String token = nodeId + ":" + UUID.randomUUID();
+        long expiresAt = System.currentTimeMillis() + coordinationConfig.getLockLeaseMillis();
+        try {
+            LockState current = readLock(lockName);
+            if (current == null) {
+                String etag = writeLock(lockName, token, expiresAt, Long.MIN_VALUE, "If-None-Match", "*");
+                return etag == null ? null : new SaveLock(key, token + "@" + etag, Long.MIN_VALUE);
+            }
+            if (current.owner != null && current.expiresAt > System.currentTimeMillis()) {
+                return null;
+            }
+            if (current.owner != null) {
+                log.warn("保存锁已超过租期, 接管: key={}, 原持有者={}", key, current.owner);
+            }
+            String etag = writeLock(lockName, token, expiresAt, current.savedVersion, "If-Match", quote(current.etag));
+            return etag == null ? null : new SaveLock(key, token + "@" + etag, current.savedVersion);
+        } catch (Exception e) {
+            log.warn("获取保存锁失败: key={}, {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void release(SaveLock lock, long savedVersion) {
+        lock.getUpdateLock().lock();
+        try {
+            String etag = lock.getToken().substring(lock.getToken().lastIndexOf('@') + 1);
+            long version = Math.max(savedVersion, lock.getSavedVersion());
+            if (writeLock(lockName(lock.getKey()), null, 0, version, "If-Match", quote(etag)) == null) {
+                log.warn("释放保存锁时锁已被其他节点接管: key={}", lock.getKey());
+            }
+        } catch (Exception e) {
+            // 锁在租期结束后自动失效
+            log.warn("释放保存锁失败: key={}, {}", lock.getKey(), e.getMessage());
+        } finally {
+            lock.getUpdateLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean renew(SaveLock lock) {
+        lock.getUpdateLock().lock();
+        try {
+            String token = lock.getToken();
+            int index = token.lastIndexOf('@');
+            String owner = token.substring(0, index);
+            long expiresAt = System.currentTimeMillis() + coordinationConfig.getLockLeaseMillis();
+            String etag = writeLock(lockName(lock.getKey()), owner, expiresAt, lock.getSavedVersion(),
+                    "If-Match", quote(token.substring(index + 1)));
+            if (etag == null) {
+                log.warn("续期保存锁时锁已被其他节点接管: key={}", lock.getKey());
+                return false;
+            }
+            lock.setToken(owner + "@" + etag);
+            return true;
+        } catch (Exception e) {
+            log.warn("续期保存锁失败: key={}, {}", lock.getKey(), e.getMessage());
+            return false;
+        } finally {
+            lock.getUpdateLock().unlock();
+        }
+    }
+
+    @Override
+    public void publish(String objectName) {
+        // 对象写入和删除本身会产生存储桶通知, 不需要另外发送
+    }
+
+    @Override
+    public void subscribe(ChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 持续监听存储桶通知, 连接断开后重连, 重连后通知监听器丢弃缓存
+     */
+    private void listen() {
+        boolean reconnect = false;
+        while (running) {
+            try (CloseableIterator<Result<NotificationRecords>> iterator = minioClient.listenBucketNotification(
+                    ListenBucketNotificationArgs.builder().bucket(minioConfig.getBucketName()).prefix("").suffix("").events(EVENTS).build())) {
+                records = iterator;
+                if (reconnect) {
+                    log.info("存储桶通知已重新连接, 丢弃本地缓存");
+                    listeners.forEach(ChangeListener::reset);
+                }
+                while (running && iterator.hasNext()) {
+                    for (Event event : iterator.next().get().events()) {
+                        dispatch(event);
+                    }
+                }
+            } catch (Exception e) {
+                if (running) {
+                    log.warn("监听存储桶通知失败, {} 毫秒后重连: {}", coordinationConfig.getListenRetryMillis(), e.getMessage());
+                }
+            }
+            reconnect = true;
+            if (running) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(coordinationConfig.getListenRetryMillis());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void dispatch(Event event) {
+        // 事件中的对象名经过URL编码
+        String objectName = event.objectName() == null ? null : URLDecoder.decode(event.objectName(), StandardCharsets.UTF_8);
+        if (objectName == null || objectName.startsWith(coordinationConfig.getPrefix())) {
+            return;
+        }
+        String userAgent = event.userAgent();
+        if (userAgent != null && userAgent.trim().endsWith(APP_NAME + "/" + nodeId)) {
+            return;
+        }
+        for (ChangeListener listener : listeners) {
+            try {
+                listener.changed(objectName);
+            } catch (RuntimeException e) {
+                log.warn("处理对象变更失败: {}, {}", objectName, e.getMessage());
+            }
+        }
+    }
+
+    private LockState readLock(String lockName) throws Exception {
+        try (GetObjectResponse response = minioClient.getObject(GetObjectArgs.builder()
+                .bucket(minioConfig.getBucketName()).object(lockName).build())) {
+            JSONObject json = JSONObject.parseObject(new String(response.readAllBytes(), StandardCharsets.UTF_8));
+            LockState state = new LockState();
+            state.etag = unquote(response.headers().get("ETag"));
+            state.owner = json.getString("owner");
+            state.expiresAt = json.getLongValue("expiresAt");
+            state.savedVersion = json.containsKey("savedVersion") ? json.getLongValue("savedVersion") : Long.MIN_VALUE;
+            return state;
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 条件写入锁对象
+     *
+     * @return 写入后的ETag, 条件不满足(被其他节点抢先)时返回null
+     */
+    private String writeLock(String lockName, String owner, long expiresAt, long savedVersion,
+                             String conditionHeader, String conditionValue) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("owner", owner);
+        json.put("expiresAt", expiresAt);
+        json.put("savedVersion", savedVersion);
+        byte[] body = json.toJSONString().getBytes(StandardCharsets.UTF_8);
+        try {
+            ObjectWriteResponse response = minioClient.putObject(PutObjectArgs.builder()
+                    .bucket(minioConfig.getBucketName()).object(lockName).contentType(LOCK_CONTENT_TYPE)
+                    .headers(Map.of(conditionHeader, conditionValue))
+                    .stream(new ByteArrayInputStream(body), body.length, -1).build());
+            return unquote(response.etag());
+        } catch (ErrorResponseException e) {
+            if ("PreconditionFailed".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    private String lockName(String key) {
+        return coordinationConfig.getPrefix() + "locks/" + key + ".json";
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+
+    private static String unquote(String etag) {
+        return etag == null ? "" : etag.replace("\"", "");
+    }
+
+    /**
+     * 锁对象的内容
+     */
+    private static final class LockState {
+        private String etag;
+        private String owner;
+        private long expiresAt;
+        private long savedVersion;
+    }
+}
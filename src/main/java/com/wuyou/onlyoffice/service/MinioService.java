@@ -2,36 +2,69 @@ package cn.superlu.onlyoffice.service;
 
 
 import cn.superlu.onlyoffice.config.MinioConfig;
-import cn.superlu.onlyoffice.dto.FileInfoDTO;
+import io.micrometer.core.instrument.Timer;
 import io.minio.BucketExistsArgs;
+import io.minio.ComposeObjectArgs;
+import io.minio.ComposeSource;
+import io.minio.CopyObjectArgs;
+import io.minio.CopySource;
+import io.minio.Directive;
 import io.minio.GetObjectArgs;
 import io.minio.GetPresignedObjectUrlArgs;
 import io.minio.ListObjectsArgs;
 import io.minio.MakeBucketArgs;
 import io.minio.MinioClient;
-import io.minio.ObjectWriteResponse;
 import io.minio.PutObjectArgs;
 import io.minio.RemoveObjectArgs;
+import io.minio.RemoveObjectsArgs;
 import io.minio.Result;
+import io.minio.StatObjectArgs;
+import io.minio.StatObjectResponse;
+import io.minio.errors.ErrorResponseException;
 import io.minio.errors.MinioException;
 import io.minio.http.Method;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
 import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.CloseShieldInputStream;
+import org.apache.commons.io.input.CountingInputStream;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.text.SimpleDateFormat;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 @Slf4j
@@ -42,6 +75,76 @@ public class MinioService {
 
     private final MinioConfig minioConfig;
 
+    private final PresignedUrlCache presignedUrlCache;
+
+    private final LocalFileCache localFileCache;
+
+    private final MultipartUploadService multipartUploadService;
+
+    private final OnlyOfficeMetrics metrics;
+
+    private final CoordinationBackend coordinationBackend;
+
+    // 流式上传的读缓冲区大小
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+
+    // 指针对象的元数据: 数据块摘要和内容长度
+    private static final String META_BLOB = "blob";
+    private static final String META_BLOB_SIZE = "blob-size";
+
+    // 对象的元数据: 强制保存时沿用的文档版本, 没有时以对象的ETag作为版本
+    private static final String META_DOCUMENT_VERSION = "document-version";
+
+    // 指针对象的内容类型
+    private static final String POINTER_CONTENT_TYPE = "application/x-onlyoffice-blob-pointer";
+
+    // 去重上传时临时对象所在的目录(数据块前缀下), 上传完成后删除
+    private static final String BLOB_TEMP_DIR = "tmp/";
+
+    // 新写入的数据块在该时间内不会被清理, 避免删除指针还没写入的数据块; 同样时间内的临时对象也不会被清理
+    private static final long BLOB_GC_GRACE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // 单次复制请求的最大对象长度, 超过时按分片复制
+    private static final long MAX_COPY_OBJECT_SIZE = 5L * 1024 * 1024 * 1024;
+
+    // 批量删除每批的对象数
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    // 存储桶是否已确认存在
+    private volatile boolean bucketReady;
+
+    // 去重模式下对象名 -> 实际存储数据的对象名
+    private final ConcurrentHashMap<String, String> blobNames = new ConcurrentHashMap<>();
+
+    private final ReentrantLock bucketLock = new ReentrantLock();
+
+    /**
+     * 启动时检查并创建存储桶, MinIO暂不可用时推迟到第一次上传
+     */
+    @PostConstruct
+    public void init() {
+        coordinationBackend.subscribe(new CoordinationBackend.ChangeListener() {
+            @Override
+            public void changed(String objectName) {
+                blobNames.remove(objectName);
+                presignedUrlCache.invalidate(objectName);
+                localFileCache.invalidate(objectName);
+            }
+
+            @Override
+            public void reset() {
+                blobNames.clear();
+                presignedUrlCache.invalidateAll();
+                localFileCache.invalidateAll();
+            }
+        });
+        try {
+            ensureBucket();
+        } catch (Exception e) {
+            log.warn("初始化存储桶失败, 将在首次上传时重试: {}", e.getMessage());
+        }
+    }
+
     /**
      * 上传文件到MinIO
      *
@@ -51,21 +154,54 @@ public class MinioService {
      * @return 是否上传成功
      */
     public boolean uploadFile(MultipartFile file, String objectName, String contentType) {
-        try {
-            // 检查存储桶是否存在，不存在则创建
-            boolean bucketExists = minioClient.bucketExists(BucketExistsArgs.builder().bucket(minioConfig.getBucketName()).build());
+        try (InputStream in = file.getInputStream()) {
+            return uploadFile(in, file, file.getSize(), objectName, contentType);
+        } catch (IOException e) {
+            log.error("上传文件到MinIO失败: {}", e.getMessage(), e);
+            return false;
+        }
+    }
 
-            if (!bucketExists) {
-                minioClient.makeBucket(MakeBucketArgs.builder().bucket(minioConfig.getBucketName()).build());
+    /**
+     * 上传长度已知、可以重新读取的数据到MinIO, 大文件并行分片上传
+     * <p>
+     * 非去重模式下直接上传已打开的数据流; 去重模式下先读完它计算摘要, 数据块已存在时不再上传,
+     * 不存在时才从source重新读取, 直接上传为数据块。
+     *
+     * @param inputStream 已打开的数据流(由调用方负责关闭)
+     * @param source      数据来源, 去重模式下需要上传时从这里重新读取
+     * @param size        数据长度
+     * @param objectName  对象名称
+     * @param contentType 内容类型
+     * @return 是否上传成功
+     */
+    public boolean uploadFile(InputStream inputStream, InputStreamSource source, long size, String objectName, String contentType) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            ensureBucket();
+            if (minioConfig.isDedupEnabled()) {
+                uploadDeduplicated(inputStream, source, objectName, contentType);
+            } else if (multipartUploadService.accepts(size)) {
+                // 上传文件, 大文件并行分片上传
+                multipartUploadService.upload(Channels.newChannel(inputStream), objectName, contentType);
+            } else {
+                minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).contentType(contentType).stream(inputStream, size, -1).build());
             }
+            changed(objectName);
+            metrics.recordBytes("upload", objectName, size);
 
-            // 上传文件
-            minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).contentType(contentType).stream(file.getInputStream(), file.getSize(), -1).build());
-
+            success = true;
             return true;
         } catch (Exception e) {
+            // 数据流已被消费无法重试, 只标记存储桶需要重新检查, 由调用方重试
+            if (isNoSuchBucket(e)) {
+                bucketReady = false;
+            }
             log.error("上传文件到MinIO失败: {}", e.getMessage(), e);
             return false;
+        } finally {
+            metrics.recordStorage(sample, "upload", objectName, success);
         }
     }
 
@@ -78,40 +214,404 @@ public class MinioService {
      * @return 如果上传成功返回true，否则返回false
      */
     public boolean uploadFile(File file, String objectName, String contentType) {
-        try (InputStream inputStream = new FileInputStream(file)) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            if (minioConfig.isDedupEnabled()) {
+                // 存储桶被删除时重建后重试一次
+                withBucket(() -> {
+                    try (InputStream in = new FileInputStream(file)) {
+                        uploadDeduplicated(in, new FileSystemResource(file), objectName, contentType);
+                    }
+                });
+            } else {
+                // 存储桶被删除时重建后重试一次
+                withBucket(() -> {
+                    // 上传文件, 大文件并行分片上传
+                    if (multipartUploadService.accepts(file.length())) {
+                        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                            multipartUploadService.upload(channel, objectName, contentType);
+                        }
+                    } else {
+                        try (InputStream inputStream = new FileInputStream(file)) {
+                            minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).contentType(contentType).stream(inputStream, file.length(), -1).build());
+                        }
+                    }
+                });
+            }
+            changed(objectName);
+            metrics.recordBytes("upload", objectName, file.length());
+
+            success = true;
+            return true;
+        } catch (IOException | MinioException | InvalidKeyException | NoSuchAlgorithmException e) {
+            // 使用日志记录错误信息
+            log.error("上传文件到MinIO失败: {}", e.getMessage(), e);
+            return false;
+        } catch (Exception e) {
+            log.error("分片上传文件到MinIO失败: {}", e.getMessage(), e);
+            return false;
+        } finally {
+            metrics.recordStorage(sample, "upload", objectName, success);
+        }
+    }
+
+    /**
+     * 以流的方式上传到MinIO, 不经过本地临时文件
+     *
+     * @param inputStream 数据流(由调用方负责关闭)
+     * @param size        数据长度, 未知时传-1, 此时按分片上传
+     * @param objectName  对象名称
+     * @param contentType 内容类型
+     * @return 是否上传成功
+     */
+    public boolean uploadStream(InputStream inputStream, long size, String objectName, String contentType) {
+        return uploadStream(inputStream, size, objectName, contentType, null);
+    }
+
+    /**
+     * 以流的方式上传到MinIO, 并指定上传后对象的文档版本
+     *
+     * @param inputStream     数据流(由调用方负责关闭)
+     * @param size            数据长度, 未知时传-1, 此时按分片上传
+     * @param objectName      对象名称
+     * @param contentType     内容类型
+     * @param documentVersion 沿用的文档版本, 为null时上传后的版本是新对象的ETag
+     * @return 是否上传成功
+     */
+    public boolean uploadStream(InputStream inputStream, long size, String objectName, String contentType, String documentVersion) {
+        Map<String, String> userMetadata = documentVersion == null ? Map.of() : Map.of(META_DOCUMENT_VERSION, documentVersion);
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            long bytes;
+            if (minioConfig.isDedupEnabled()) {
+                ensureBucket();
+                bytes = uploadDeduplicated(inputStream, size, objectName, contentType, userMetadata);
+            } else {
+                ensureBucket();
+
+                // 长度已知时单次上传, 未知时按固定分片大小走分片上传
+                long partSize = size < 0 ? minioConfig.getStreamPartSize() : -1;
+                CountingInputStream counting = new CountingInputStream(inputStream);
+                InputStream in = new BufferedInputStream(counting, STREAM_BUFFER_SIZE);
+                minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).contentType(contentType)
+                        .userMetadata(userMetadata).stream(in, size, partSize).build());
+                bytes = counting.getByteCount();
+            }
+            changed(objectName);
+            metrics.recordBytes("upload_stream", objectName, bytes);
+
+            success = true;
+            return true;
+        } catch (Exception e) {
+            // 数据流已被消费无法重试, 只标记存储桶需要重新检查, 由调用方重试
+            if (isNoSuchBucket(e)) {
+                bucketReady = false;
+            }
+            log.error("流式上传文件到MinIO失败: {}", e.getMessage(), e);
+            return false;
+        } finally {
+            metrics.recordStorage(sample, "upload_stream", objectName, success);
+        }
+    }
+
+    /**
+     * 去重模式下上传可以重新读取的数据: 先读完已打开的数据流计算摘要, 相同摘要的数据块已存在时不上传,
+     * 只写入指针; 不存在时从source重新读取, 直接上传为数据块, 不经过临时对象和复制。
+     * 命中时数据只在本地读一遍, 没有命中时多一次本地读取, 换来命中时不占用上传带宽。
+     *
+     * @param inputStream 已打开的数据流(由调用方负责关闭)
+     * @param source      数据来源, 需要上传时从这里重新读取
+     * @param objectName  对象名称
+     * @param contentType 内容类型
+     * @return 数据长度
+     */
+    private long uploadDeduplicated(InputStream inputStream, InputStreamSource source, String objectName,
+                                    String contentType) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        long length = new DigestInputStream(inputStream, digest).transferTo(OutputStream.nullOutputStream());
+        byte[] hash = digest.digest();
+        String hex = HexFormat.of().formatHex(hash);
+        String blobName = minioConfig.getBlobPrefix() + hex;
+
+        if (referenceBlob(blobName)) {
+            metrics.recordDedup(objectName, true, length);
+        } else {
+            // 重新读取时再算一遍摘要, 两次读到的内容不同时不能以这个摘要保存
+            MessageDigest verify = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(source.getInputStream(), verify)) {
+                if (multipartUploadService.accepts(length)) {
+                    try (ReadableByteChannel channel = Channels.newChannel(in)) {
+                        multipartUploadService.upload(channel, blobName, contentType);
+                    }
+                } else {
+                    minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(blobName).contentType(contentType)
+                            .stream(new BufferedInputStream(in, STREAM_BUFFER_SIZE), length, -1).build());
+                }
+            }
+            if (!MessageDigest.isEqual(hash, verify.digest())) {
+                minioClient.removeObject(RemoveObjectArgs.builder().bucket(minioConfig.getBucketName()).object(blobName).build());
+                throw new IOException("上传过程中文件内容发生变化: " + objectName);
+            }
+            metrics.recordDedup(objectName, false, length);
+        }
+        writePointer(objectName, hex, length, Map.of());
+        return length;
+    }
+
+    /**
+     * 去重模式下上传只能读一遍的数据流: 边上传边计算摘要, 数据先写入临时对象, 读完后按摘要在MinIO内部复制为数据块,
+     * 相同摘要的数据块已存在时不再复制; 最后删除临时对象, 在对象名处写入指向数据块的指针。
+     * 摘要在读完之前未知, 不缓存到本地就无法在上传前判断数据块是否存在, 因此命中时临时对象的上传无法省掉;
+     * 中途失败没有删掉的临时对象由数据块清理任务删除。
+     *
+     * @param inputStream  数据流(由调用方负责关闭)
+     * @param size         数据长度, 未知时传-1, 此时按分片上传
+     * @param objectName   对象名称
+     * @param contentType  内容类型
+     * @param userMetadata 指针对象的其他用户元数据
+     * @return 数据长度
+     */
+    private long uploadDeduplicated(InputStream inputStream, long size, String objectName, String contentType,
+                                    Map<String, String> userMetadata) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        CountingInputStream counting = new CountingInputStream(new DigestInputStream(CloseShieldInputStream.wrap(inputStream), digest));
+        String tempName = minioConfig.getBlobPrefix() + BLOB_TEMP_DIR + UUID.randomUUID();
+        try {
+            // 上传临时对象, 大文件并行分片上传
+            if (size >= 0 && multipartUploadService.accepts(size)) {
+                try (ReadableByteChannel channel = Channels.newChannel(counting)) {
+                    multipartUploadService.upload(channel, tempName, contentType);
+                }
+            } else {
+                long partSize = size < 0 ? minioConfig.getStreamPartSize() : -1;
+                InputStream in = new BufferedInputStream(counting, STREAM_BUFFER_SIZE);
+                minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(tempName).contentType(contentType)
+                        .stream(in, size, partSize).build());
+            }
+            long length = counting.getByteCount();
+            String hex = HexFormat.of().formatHex(digest.digest());
+            String blobName = minioConfig.getBlobPrefix() + hex;
+
+            if (referenceBlob(blobName)) {
+                metrics.recordDedup(objectName, true, length);
+            } else {
+                copyToBlob(tempName, blobName, length);
+                metrics.recordDedup(objectName, false, length);
+            }
+            writePointer(objectName, hex, length, userMetadata);
+            return length;
+        } finally {
+            try {
+                minioClient.removeObject(RemoveObjectArgs.builder().bucket(minioConfig.getBucketName()).object(tempName).build());
+            } catch (Exception e) {
+                log.warn("删除去重临时对象失败: {}, {}", tempName, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 引用已存在的数据块, 长时间没有引用的数据块可能即将被清理, 先刷新修改时间(MinIO只更新元数据, 不复制数据)
+     *
+     * @param blobName 数据块对象名
+     * @return 数据块是否存在
+     */
+    private boolean referenceBlob(String blobName) throws Exception {
+        StatObjectResponse blob = statIfExists(blobName);
+        if (blob == null) {
+            return false;
+        }
+        if (blob.lastModified().toInstant().toEpochMilli() < System.currentTimeMillis() - BLOB_GC_GRACE_MILLIS / 2) {
+            minioClient.copyObject(CopyObjectArgs.builder().bucket(minioConfig.getBucketName()).object(blobName)
+                    .source(CopySource.builder().bucket(minioConfig.getBucketName()).object(blobName).build())
+                    .metadataDirective(Directive.REPLACE)
+                    .headers(Map.of("Content-Type", blob.contentType()))
+                    .build());
+        }
+        return true;
+    }
+
+    /**
+     * 在MinIO内部把临时对象复制为数据块; 单次复制最多5GiB, 更大的对象按分片复制
+     */
+    private void copyToBlob(String tempName, String blobName, long length) throws Exception {
+        if (length > MAX_COPY_OBJECT_SIZE) {
+            minioClient.composeObject(ComposeObjectArgs.builder().bucket(minioConfig.getBucketName()).object(blobName)
+                    .sources(List.of(ComposeSource.builder().bucket(minioConfig.getBucketName()).object(tempName).build()))
+                    .build());
+        } else {
+            minioClient.copyObject(CopyObjectArgs.builder().bucket(minioConfig.getBucketName()).object(blobName)
+                    .source(CopySource.builder().bucket(minioConfig.getBucketName()).object(tempName).build())
+                    .build());
+        }
+    }
+
+    /**
+     * 在对象名处写入指向数据块的指针
+     */
+    private void writePointer(String objectName, String hex, long length, Map<String, String> userMetadata) throws Exception {
+        byte[] pointer = hex.getBytes(StandardCharsets.US_ASCII);
+        Map<String, String> pointerMetadata = new HashMap<>(userMetadata);
+        pointerMetadata.put(META_BLOB, hex);
+        pointerMetadata.put(META_BLOB_SIZE, String.valueOf(length));
+        minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).contentType(POINTER_CONTENT_TYPE)
+                .userMetadata(pointerMetadata)
+                .stream(new ByteArrayInputStream(pointer), pointer.length, -1).build());
+        blobNames.put(objectName, minioConfig.getBlobPrefix() + hex);
+    }
+
+    /**
+     * 取实际存储数据的对象名, 未开启去重或不是指针对象时就是对象名本身
+     *
+     * @param objectName 对象名称
+     * @return 实际存储数据的对象名
+     */
+    private String resolve(String objectName) throws Exception {
+        if (!minioConfig.isDedupEnabled()) {
+            return objectName;
+        }
+        String cached = blobNames.get(objectName);
+        if (cached != null) {
+            return cached;
+        }
+        StatObjectResponse stat = statIfExists(objectName);
+        if (stat == null) {
+            return objectName;
+        }
+        String blobName = dataNameOf(stat);
+        blobNames.put(objectName, blobName);
+        return blobName;
+    }
+
+    private StatObjectResponse statIfExists(String objectName) throws Exception {
+        try {
+            return minioClient.statObject(StatObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).build());
+        } catch (ErrorResponseException e) {
+            if ("NoSuchKey".equals(e.errorResponse().code())) {
+                return null;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 读取用户元数据, 兼容statObject返回的短名称和列表接口返回的完整头名称
+     */
+    private static String metadataValue(Map<String, String> metadata, String name) {
+        if (metadata == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            String key = entry.getKey();
+            if (key.equalsIgnoreCase(name) || key.equalsIgnoreCase("x-amz-meta-" + name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 确保存储桶存在, 检查通过后不再重复检查, 直到出现NoSuchBucket错误
+     */
+    private void ensureBucket() throws Exception {
+        if (bucketReady) {
+            return;
+        }
+        bucketLock.lock();
+        try {
+            if (bucketReady) {
+                return;
+            }
             // 检查存储桶是否存在，不存在则创建
             boolean bucketExists = minioClient.bucketExists(BucketExistsArgs.builder().bucket(minioConfig.getBucketName()).build());
 
             if (!bucketExists) {
                 minioClient.makeBucket(MakeBucketArgs.builder().bucket(minioConfig.getBucketName()).build());
             }
+            bucketReady = true;
+        } finally {
+            bucketLock.unlock();
+        }
+    }
 
-            // 上传文件
-            minioClient.putObject(PutObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).contentType(contentType).stream(inputStream, file.length(), -1).build());
+    private void withBucket(StorageCall call) throws Exception {
+        ensureBucket();
+        try {
+            call.run();
+        } catch (Exception e) {
+            if (!isNoSuchBucket(e)) {
+                throw e;
+            }
+            log.warn("存储桶不存在, 重新创建后重试");
+            bucketReady = false;
+            ensureBucket();
+            call.run();
+        }
+    }
 
-            return true;
-        } catch (IOException | MinioException e) {
-            // 使用日志记录错误信息
-            log.error("上传文件到MinIO失败: {}", e.getMessage(), e);
-            return false;
-        } catch (InvalidKeyException | NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    private boolean isNoSuchBucket(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ErrorResponseException
+                    && "NoSuchBucket".equals(((ErrorResponseException) cause).errorResponse().code())) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface StorageCall {
+        void run() throws Exception;
     }
 
     /**
-     * 获取文件访问URL
+     * 获取文件访问URL, 优先复用缓存中未临近过期的URL
      *
      * @param objectName 对象名称
      * @return 文件访问URL
      */
     public String getFileUrl(String objectName) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(minioConfig.getUrlExpiryDays());
+        return presignedUrlCache.get(objectName, expiresAt, this::signFileUrl);
+    }
+
+    /**
+     * 获取文件的预签名URL, 调用方已知实际存储数据的对象名(如索引中记录的), 缓存未命中时只在本地签名, 不访问MinIO
+     * <p>
+     * URL按实际存储数据的对象名缓存: 数据块的内容不会改变, 调用方按稍旧的数据块名取到的URL也不会缓存到新对象名下。
+     *
+     * @param objectName 对象名称
+     * @param dataName   实际存储数据的对象名, 见 {@link #dataNameOf(StatObjectResponse)}
+     * @return 预签名URL
+     */
+    public String getFileUrl(String objectName, String dataName) {
+        long expiresAt = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(minioConfig.getUrlExpiryDays());
+        return presignedUrlCache.get(dataName, expiresAt, name -> signFileUrl(objectName, name));
+    }
+
+    private String signFileUrl(String objectName) {
+        try {
+            return signFileUrl(objectName, resolve(objectName));
+        } catch (Exception e) {
+            log.error("获取文件URL失败: {}", e.getMessage(), e);
+            return "";
+        }
+    }
+
+    private String signFileUrl(String objectName, String dataName) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
         try {
-            return minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).method(Method.GET).expiry(7, TimeUnit.DAYS) // URL有效期7天
+            String url = minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder().bucket(minioConfig.getBucketName()).object(dataName).method(Method.GET).expiry(minioConfig.getUrlExpiryDays(), TimeUnit.DAYS)
                     .build());
+            success = true;
+            return url;
         } catch (Exception e) {
             log.error("获取文件URL失败: {}", e.getMessage(), e);
             return "";
+        } finally {
+            metrics.recordStorage(sample, "presign", objectName, success);
         }
     }
 
@@ -122,93 +622,409 @@ public class MinioService {
      * @return 文件输入流
      */
     public InputStream downloadFile(String objectName) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            InputStream in = minioClient.getObject(GetObjectArgs.builder().bucket(minioConfig.getBucketName()).object(resolve(objectName)).build());
+            success = true;
+            return metrics.countDownload(in, "download", objectName);
+        } catch (Exception e) {
+            log.error("从MinIO下载文件失败: {}", e.getMessage(), e);
+            return null;
+        } finally {
+            metrics.recordStorage(sample, "download", objectName, success);
+        }
+    }
+
+    /**
+     * 从MinIO下载文件的指定区间
+     *
+     * @param objectName 对象名称
+     * @param offset     起始位置
+     * @param length     长度
+     * @return 文件输入流
+     */
+    public InputStream downloadFile(String objectName, long offset, long length) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
         try {
-            return minioClient.getObject(GetObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).build());
+            InputStream in = minioClient.getObject(GetObjectArgs.builder().bucket(minioConfig.getBucketName()).object(resolve(objectName)).offset(offset).length(length).build());
+            success = true;
+            return metrics.countDownload(in, "download_range", objectName);
         } catch (Exception e) {
             log.error("从MinIO下载文件失败: {}", e.getMessage(), e);
             return null;
+        } finally {
+            metrics.recordStorage(sample, "download_range", objectName, success);
+        }
+    }
+
+    /**
+     * 获取文件元数据, 去重模式下返回数据块的元数据
+     *
+     * @param objectName 对象名称
+     * @return 文件元数据, 不存在或出错时返回null
+     */
+    public StatObjectResponse statFile(String objectName) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            // 文件不存在是正常结果, 不计为失败
+            StatObjectResponse stat = statIfExists(resolve(objectName));
+            success = true;
+            return stat;
+        } catch (Exception e) {
+            log.error("获取MinIO文件元数据失败: {}", e.getMessage(), e);
+            return null;
+        } finally {
+            metrics.recordStorage(sample, "stat", objectName, success);
+        }
+    }
+
+    /**
+     * 获取对象本身的元数据, 去重模式下不解析指针, 用于读取对象的版本
+     *
+     * @param objectName 对象名称
+     * @return 对象元数据, 不存在时返回null
+     * @throws Exception 访问MinIO失败
+     */
+    public StatObjectResponse statObject(String objectName) throws Exception {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            StatObjectResponse stat = statIfExists(objectName);
+            success = true;
+            return stat;
+        } finally {
+            metrics.recordStorage(sample, "stat", objectName, success);
         }
     }
 
     /**
-     * 删除MinIO中的文件
+     * 删除MinIO中的文件, 去重模式下只删除指针, 数据块由定时任务在无引用后清理
      *
      * @param objectName 对象名称
      * @return 是否删除成功
      */
     public boolean deleteFile(String objectName) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
         try {
             minioClient.removeObject(RemoveObjectArgs.builder().bucket(minioConfig.getBucketName()).object(objectName).build());
+            blobNames.remove(objectName);
+            changed(objectName);
+            success = true;
             return true;
         } catch (Exception e) {
             log.error("删除MinIO文件失败: {}", e.getMessage(), e);
             return false;
+        } finally {
+            metrics.recordStorage(sample, "delete", objectName, success);
         }
     }
 
     /**
-     * 获取MinIO中所有文件的列表
+     * 列出存储桶根目录下的所有对象(不含目录)
      *
-     * @return 文件信息列表
+     * @return 对象列表
+     * @throws Exception 访问MinIO失败
      */
-    public List<FileInfoDTO> listFiles() {
-        List<FileInfoDTO> fileList = new ArrayList<>();
-        try {
-            // 列出存储桶中的所有对象
-            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder().bucket(minioConfig.getBucketName()).build());
+    public List<Item> listObjects() throws Exception {
+        List<Item> items = new ArrayList<>();
+        for (Item item : listObjects("", false)) {
+            // 跳过目录对象
+            if (item.isDir() || item.objectName().endsWith("/")) {
+                continue;
+            }
+            items.add(item);
+        }
+        return items;
+    }
 
+    /**
+     * 列出指定前缀下的对象
+     *
+     * @param prefix    对象名前缀
+     * @param recursive 是否包含子目录中的对象, 为false时子目录作为目录项返回
+     * @return 对象列表, 包含目录项
+     * @throws Exception 访问MinIO失败
+     */
+    public List<Item> listObjects(String prefix, boolean recursive) throws Exception {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            List<Item> items = new ArrayList<>();
+            // 需要元数据中记录的文档版本, 去重模式下还需要指针中记录的数据长度
+            Iterable<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder().bucket(minioConfig.getBucketName())
+                    .prefix(prefix).recursive(recursive).includeUserMetadata(true).build());
             for (Result<Item> result : results) {
-                Item item = result.get();
-                String objectName = item.objectName();
+                items.add(result.get());
+            }
+            success = true;
+            return items;
+        } finally {
+            metrics.recordStorage(sample, "list", null, success);
+        }
+    }
 
-                // 跳过目录对象
-                if (objectName.endsWith("/")) {
-                    continue;
+    /**
+     * 在MinIO内部复制文件, 数据不经过本服务; 去重模式下复制的是指针, 不会复制数据块
+     *
+     * @param sourceName 源对象名称
+     * @param targetName 目标对象名称, 已存在时覆盖
+     * @return 是否复制成功
+     */
+    public boolean copyFile(String sourceName, String targetName) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            withBucket(() -> minioClient.copyObject(CopyObjectArgs.builder().bucket(minioConfig.getBucketName()).object(targetName)
+                    .source(CopySource.builder().bucket(minioConfig.getBucketName()).object(sourceName).build())
+                    .build()));
+            blobNames.remove(targetName);
+            changed(targetName);
+            success = true;
+            return true;
+        } catch (Exception e) {
+            log.error("复制MinIO文件失败: {} -> {}, {}", sourceName, targetName, e.getMessage(), e);
+            return false;
+        } finally {
+            metrics.recordStorage(sample, "copy", targetName, success);
+        }
+    }
+
+    /**
+     * 在MinIO内部复制文件并指定目标对象的文档版本, 其他用户元数据(如去重指针)保持不变
+     *
+     * @param sourceName      源对象名称
+     * @param targetName      目标对象名称, 已存在时覆盖
+     * @param documentVersion 目标对象的文档版本
+     * @return 是否复制成功, 源对象不存在时返回false
+     */
+    public boolean copyFile(String sourceName, String targetName, String documentVersion) {
+        Timer.Sample sample = metrics.start();
+        boolean success = false;
+        try {
+            StatObjectResponse source = statIfExists(sourceName);
+            if (source == null) {
+                log.warn("复制的MinIO文件不存在: {}", sourceName);
+                return false;
+            }
+            Map<String, String> userMetadata = new HashMap<>();
+            source.userMetadata().forEach((name, value) -> {
+                if (!name.equalsIgnoreCase(META_DOCUMENT_VERSION)) {
+                    userMetadata.put(name, value);
                 }
+            });
+            userMetadata.put(META_DOCUMENT_VERSION, documentVersion);
+            withBucket(() -> minioClient.copyObject(CopyObjectArgs.builder().bucket(minioConfig.getBucketName()).object(targetName)
+                    .source(CopySource.builder().bucket(minioConfig.getBucketName()).object(sourceName).build())
+                    .metadataDirective(Directive.REPLACE)
+                    .headers(Map.of("Content-Type", source.contentType()))
+                    .userMetadata(userMetadata)
+                    .build()));
+            blobNames.remove(targetName);
+            changed(targetName);
+            success = true;
+            return true;
+        } catch (Exception e) {
+            log.error("复制MinIO文件失败: {} -> {}, {}", sourceName, targetName, e.getMessage(), e);
+            return false;
+        } finally {
+            metrics.recordStorage(sample, "copy", targetName, success);
+        }
+    }
 
-                // 获取文件名和扩展名
-                String fileName = objectName;
-                String fileExtension = "";
-                int dotIndex = objectName.lastIndexOf('.');
-                if (dotIndex > 0) {
-                    fileExtension = objectName.substring(dotIndex + 1);
+    /**
+     * 批量删除MinIO中的文件, 每次请求最多删除1000个
+     *
+     * @param objectNames 对象名称
+     * @return 删除失败的对象名称, 全部成功时为空
+     */
+    public List<String> deleteFiles(List<String> objectNames) {
+        Timer.Sample sample = metrics.start();
+        List<String> failed = new ArrayList<>();
+        try {
+            for (int from = 0; from < objectNames.size(); from += DELETE_BATCH_SIZE) {
+                List<String> batchNames = objectNames.subList(from, Math.min(from + DELETE_BATCH_SIZE, objectNames.size()));
+                List<DeleteObject> batch = new ArrayList<>(batchNames.size());
+                for (String objectName : batchNames) {
+                    batch.add(new DeleteObject(objectName));
+                }
+                try {
+                    // 删除结果是惰性的, 必须遍历才会真正发出请求
+                    for (Result<DeleteError> error : minioClient.removeObjects(RemoveObjectsArgs.builder().bucket(minioConfig.getBucketName()).objects(batch).build())) {
+                        DeleteError deleteError = error.get();
+                        log.warn("删除MinIO文件失败: {}, {}", deleteError.objectName(), deleteError.message());
+                        failed.add(deleteError.objectName());
+                    }
+                } catch (Exception e) {
+                    log.error("批量删除MinIO文件失败: {}", e.getMessage(), e);
+                    failed.addAll(batchNames);
+                }
+                for (String objectName : batchNames) {
+                    blobNames.remove(objectName);
+                    changed(objectName);
                 }
+            }
+            return failed;
+        } finally {
+            metrics.recordStorage(sample, "delete_batch", null, failed.isEmpty());
+        }
+    }
 
-                // 获取文件键（去除扩展名）
-                String fileKey = dotIndex > 0 ? objectName.substring(0, dotIndex) : objectName;
+    /**
+     * 对象被本节点覆盖或删除后使缓存失效, 并通知其他节点
+     */
+    private void changed(String objectName) {
+        presignedUrlCache.invalidate(objectName);
+        localFileCache.invalidate(objectName);
+        coordinationBackend.publish(objectName);
+    }
 
-                // 获取文件URL
-                String fileUrl = getFileUrl(objectName);
+    /**
+     * 列表中对象的文件大小, 指针对象返回数据块的大小
+     *
+     * @param item listObjects返回的对象
+     * @return 文件大小
+     */
+    public long sizeOf(Item item) {
+        return blobSize(item.objectName(), item.userMetadata(), item.size());
+    }
 
-                // 创建文件信息对象
-                FileInfoDTO fileInfo = new FileInfoDTO();
-                fileInfo.setFileName(fileName);
-                fileInfo.setFileUrl(fileUrl);
-                fileInfo.setFileType(fileExtension);
-                fileInfo.setFileKey(fileKey);
+    /**
+     * 指针中记录的数据长度, 没有记录或无法解析时返回对象本身的大小
+     */
+    private static long blobSize(String objectName, Map<String, String> metadata, long size) {
+        String blobSize = metadataValue(metadata, META_BLOB_SIZE);
+        if (blobSize == null) {
+            return size;
+        }
+        try {
+            return Long.parseLong(blobSize.trim());
+        } catch (NumberFormatException e) {
+            log.warn("指针中的数据长度无效: {}, {}", objectName, blobSize);
+            return size;
+        }
+    }
 
-                // 将上传时间设置为最后修改时间
-                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-//                fileInfo.setUploadTime(Long.parseLong(dateFormat.format(new Date(item.lastModified().toEpochSecond() * 1000))));
+    /**
+     * 对象元数据中的文件大小, 指针对象返回数据块的大小
+     *
+     * @param stat statObject返回的元数据
+     * @return 文件大小
+     */
+    public long sizeOf(StatObjectResponse stat) {
+        return blobSize(stat.object(), stat.userMetadata(), stat.size());
+    }
 
-                fileList.add(fileInfo);
-            }
-        } catch (Exception e) {
-            log.error("获取文件列表失败: {}", e.getMessage(), e);
-        }
+    /**
+     * 列表中对象实际存储数据的对象名, 去重模式下的指针对象返回数据块的对象名, 否则就是对象名本身
+     *
+     * @param item listObjects返回的对象(包含用户元数据)
+     * @return 实际存储数据的对象名
+     */
+    public String dataNameOf(Item item) {
+        return dataName(item.objectName(), item.userMetadata());
+    }
 
-        // 按最后修改时间降序排序
-        fileList.sort((a, b) -> {
-            try {
-                SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-                Date dateA = format.parse(String.valueOf(a.getUploadTime()));
-                Date dateB = format.parse(String.valueOf(b.getUploadTime()));
-                return dateB.compareTo(dateA);
-            } catch (Exception e) {
-                return 0;
+    /**
+     * 对象元数据中记录的实际存储数据的对象名
+     *
+     * @param stat statObject返回的元数据
+     * @return 实际存储数据的对象名
+     */
+    public String dataNameOf(StatObjectResponse stat) {
+        return dataName(stat.object(), stat.userMetadata());
+    }
+
+    private String dataName(String objectName, Map<String, String> metadata) {
+        String digest = minioConfig.isDedupEnabled() ? metadataValue(metadata, META_BLOB) : null;
+        return digest == null ? objectName : minioConfig.getBlobPrefix() + digest;
+    }
+
+    /**
+     * 列表中对象的版本, 和 {@link #versionOf(StatObjectResponse)} 对同一个对象返回相同的值
+     * <p>
+     * 版本取元数据中沿用的文档版本(强制保存时写入), 没有时取MinIO中对象本身(去重模式下是指针)的ETag,
+     * 所有节点读到的都一样, 对象被覆盖后改变。
+     *
+     * @param item listObjects返回的对象
+     * @return 版本
+     */
+    public String versionOf(Item item) {
+        String documentVersion = metadataValue(item.userMetadata(), META_DOCUMENT_VERSION);
+        return documentVersion != null ? documentVersion : unquote(item.etag());
+    }
+
+    /**
+     * 对象元数据中的版本
+     *
+     * @param stat statObject返回的元数据
+     * @return 版本
+     */
+    public String versionOf(StatObjectResponse stat) {
+        String documentVersion = metadataValue(stat.userMetadata(), META_DOCUMENT_VERSION);
+        return documentVersion != null ? documentVersion : unquote(stat.etag());
+    }
+
+    /**
+     * 列表中对象的最后修改时间, 截断到秒, 和statObject返回的精度一致
+     *
+     * @param item listObjects返回的对象
+     * @return 时间戳
+     */
+    public long lastModifiedOf(Item item) {
+        return item.lastModified().toInstant().truncatedTo(ChronoUnit.SECONDS).toEpochMilli();
+    }
+
+    /**
+     * 对象元数据中的最后修改时间
+     *
+     * @param stat statObject返回的元数据
+     * @return 时间戳
+     */
+    public long lastModifiedOf(StatObjectResponse stat) {
+        return stat.lastModified().toInstant().truncatedTo(ChronoUnit.SECONDS).toEpochMilli();
+    }
+
+    private static String unquote(String etag) {
+        return etag == null ? "" : etag.replace("\"", "");
+    }
+
+    /**
+     * 定期清理没有指针引用的数据块
+     */
+    @Scheduled(initialDelayString = "${minio.blob-gc-interval-millis:86400000}", fixedDelayString = "${minio.blob-gc-interval-millis:86400000}")
+    public void collectBlobs() {
+        if (!minioConfig.isDedupEnabled()) {
+            return;
+        }
+        try {
+            // 指针可能在子目录中(如历史版本), 递归列出除数据块以外的所有对象;
+            // 去重上传的临时对象也在数据块前缀下, 没有被引用, 超过宽限时间后一起清理
+            Set<String> referenced = new HashSet<>();
+            for (Item item : listObjects("", true)) {
+                if (item.objectName().startsWith(minioConfig.getBlobPrefix())) {
+                    continue;
+                }
+                String digest = metadataValue(item.userMetadata(), META_BLOB);
+                if (digest != null) {
+                    referenced.add(minioConfig.getBlobPrefix() + digest);
+                }
             }
-        });
 
-        return fileList;
+            long deadline = System.currentTimeMillis() - BLOB_GC_GRACE_MILLIS;
+            List<String> unreferenced = new ArrayList<>();
+            for (Item blob : listObjects(minioConfig.getBlobPrefix(), true)) {
+                if (!referenced.contains(blob.objectName()) && blob.lastModified().toInstant().toEpochMilli() < deadline) {
+                    unreferenced.add(blob.objectName());
+                }
+            }
+            deleteFiles(unreferenced);
+            log.info("数据块清理完成: 引用中 {} 个, 清理 {} 个", referenced.size(), unreferenced.size());
+        } catch (Exception e) {
+            log.error("清理数据块失败: {}", e.getMessage(), e);
+        }
     }
 }
@@ -0,0 +1,164 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.MinioConfig;
+import cn.superlu.onlyoffice.config.MultipartMinioClient;
+import io.minio.messages.Part;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 并行分片上传
+ * <p>
+ * 调用线程按顺序从通道读取分片, 交给共享线程池并行上传。
+ * 单个文件同时在途的分片数受multipart-parallelism限制, 内存占用不超过并行数乘以分片大小。
+ * 分片失败时只重试该分片, 全部完成后合并, 任一分片最终失败则中止整个上传:
+ * 通过共享的中止标记通知还没开始和正在等待重试的分片不再上传, 等在途的分片结束后再中止分片上传。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MultipartUploadService {
+
+    private final MultipartMinioClient multipartMinioClient;
+
+    private final MinioConfig minioConfig;
+
+    private final IoThreadFactory ioThreadFactory;
+
+    private ExecutorService uploadPool;
+
+    @PostConstruct
+    public void init() {
+        uploadPool = new ThreadPoolExecutor(minioConfig.getMultipartThreads(), minioConfig.getMultipartThreads(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                ioThreadFactory.threadFactory("minio-part-upload-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadPool.shutdownNow();
+    }
+
+    /**
+     * 是否应该使用分片上传
+     *
+     * @param size 文件大小
+     * @return 是否分片上传
+     */
+    public boolean accepts(long size) {
+        return size >= minioConfig.getMultipartThreshold();
+    }
+
+    /**
+     * 分片上传
+     *
+     * @param channel     数据通道(由调用方负责关闭)
+     * @param objectName  对象名称
+     * @param contentType 内容类型
+     * @throws Exception 上传失败
+     */
+    public void upload(ReadableByteChannel channel, String objectName, String contentType) throws Exception {
+        String bucket = minioConfig.getBucketName();
+        String uploadId = multipartMinioClient.createMultipartUpload(bucket, objectName, contentType).get().result().uploadId();
+
+        Semaphore inFlight = new Semaphore(minioConfig.getMultipartParallelism());
+        // 线程池中的任务不响应CompletableFuture.cancel, 由分片自己检查
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<CompletableFuture<Part>> parts = new ArrayList<>();
+        try {
+            int partNumber = 0;
+            while (true) {
+                byte[] buffer = new byte[minioConfig.getMultipartPartSize()];
+                int length = readFully(channel, buffer);
+                // 空文件也需要一个分片
+                if (length == 0 && partNumber > 0) {
+                    break;
+                }
+                int number = ++partNumber;
+                inFlight.acquire();
+                parts.add(CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return uploadPart(bucket, objectName, uploadId, number, buffer, length, aborted);
+                    } finally {
+                        inFlight.release();
+                    }
+                }, uploadPool));
+                if (length < buffer.length) {
+                    break;
+                }
+                // 有分片已最终失败时不再继续读取
+                if (parts.stream().anyMatch(CompletableFuture::isCompletedExceptionally)) {
+                    break;
+                }
+            }
+
+            Part[] completed = new Part[parts.size()];
+            for (int i = 0; i < parts.size(); i++) {
+                completed[i] = parts.get(i).join();
+            }
+            multipartMinioClient.completeMultipartUpload(bucket, objectName, uploadId, completed).get();
+        } catch (Exception e) {
+            aborted.set(true);
+            // 中止后再写入的分片会残留在存储中, 先等在途的分片结束, 每个分片最多再等一次请求
+            CompletableFuture.allOf(parts.toArray(new CompletableFuture[0])).exceptionally(ignored -> null).join();
+            try {
+                multipartMinioClient.abortMultipartUpload(bucket, objectName, uploadId).get();
+            } catch (Exception abortError) {
+                log.warn("中止分片上传失败: {}", abortError.getMessage());
+            }
+            throw e;
+        }
+    }
+
+    private Part uploadPart(String bucket, String objectName, String uploadId, int partNumber, byte[] data, int length,
+                            AtomicBoolean aborted) {
+        int attempts = minioConfig.getMultipartPartAttempts();
+        for (int attempt = 1; ; attempt++) {
+            if (aborted.get()) {
+                throw new IllegalStateException("分片" + partNumber + "未上传, 上传已中止");
+            }
+            try {
+                String etag = multipartMinioClient.uploadPart(bucket, objectName, uploadId, partNumber, data, length).get().etag();
+                return new Part(partNumber, etag);
+            } catch (Exception e) {
+                if (attempt >= attempts) {
+                    throw new IllegalStateException("分片" + partNumber + "上传失败: " + e.getMessage(), e);
+                }
+                log.warn("分片上传失败, 准备重试: object={}, part={}, attempt={}, {}", objectName, partNumber, attempt, e.getMessage());
+                try {
+                    Thread.sleep(500L * attempt);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("分片上传被中断", interrupted);
+                }
+            }
+        }
+    }
+
+    private int readFully(ReadableByteChannel channel, byte[] buffer) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer);
+        while (target.hasRemaining()) {
+            if (channel.read(target) < 0) {
+                break;
+            }
+        }
+        return target.position();
+    }
+}
@@ -0,0 +1,230 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.constant.OnlyOfficeCallBackStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.io.input.CountingInputStream;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 存储和回调的监控指标
+ * <p>
+ * 每次MinIO操作记录耗时和结果, 传输的字节数单独统计; 标签中的文件类型只保留常见的文档格式, 避免标签值过多。
+ * 指标通过 /actuator/prometheus 暴露。
+ */
+@Service
+@RequiredArgsConstructor
+public class OnlyOfficeMetrics {
+
+    // 作为标签值的文件类型, 其余归为other
+    private static final Set<String> FILE_TYPES = Set.of(
+            "doc", "docx", "odt", "rtf", "txt",
+            "xls", "xlsx", "ods", "csv",
+            "ppt", "pptx", "odp",
+            "pdf", "png", "jpg");
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 开始计时
+     *
+     * @return 计时样本
+     */
+    public Timer.Sample start() {
+        return Timer.start(meterRegistry);
+    }
+
+    /**
+     * 记录一次MinIO操作
+     *
+     * @param sample     开始时的计时样本
+     * @param operation  操作名称
+     * @param objectName 对象名称, 用于确定文件类型
+     * @param success    是否成功
+     */
+    public void recordStorage(Timer.Sample sample, String operation, String objectName, boolean success) {
+        sample.stop(Timer.builder("onlyoffice.storage.requests")
+                .description("MinIO操作耗时")
+                .tag("operation", operation)
+                .tag("file_type", fileType(objectName))
+                .tag("result", success ? "success" : "failure")
+                .register(meterRegistry));
+    }
+
+    /**
+     * 记录和MinIO之间传输的字节数
+     *
+     * @param operation  操作名称
+     * @param objectName 对象名称
+     * @param bytes      字节数
+     */
+    public void recordBytes(String operation, String objectName, long bytes) {
+        DistributionSummary.builder("onlyoffice.storage.bytes")
+                .description("和MinIO之间传输的字节数")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .tag("file_type", fileType(objectName))
+                .register(meterRegistry)
+                .record(bytes);
+    }
+
+    /**
+     * 记录一次去重上传
+     *
+     * @param objectName 对象名称
+     * @param hit        数据块是否已存在
+     * @param bytes      数据长度, 命中时即节省的上传字节数
+     */
+    public void recordDedup(String objectName, boolean hit, long bytes) {
+        String tag = fileType(objectName);
+        Counter.builder("onlyoffice.storage.dedup")
+                .description("去重上传次数")
+                .tag("result", hit ? "hit" : "miss")
+                .tag("file_type", tag)
+                .register(meterRegistry)
+                .increment();
+        if (hit) {
+            Counter.builder("onlyoffice.storage.dedup.saved")
+                    .description("去重节省的上传字节数")
+                    .baseUnit("bytes")
+                    .tag("file_type", tag)
+                    .register(meterRegistry)
+                    .increment(bytes);
+        }
+    }
+
+    /**
+     * 包装下载流, 关闭时记录实际读取的字节数
+     *
+     * @param in         MinIO返回的数据流
+     * @param operation  操作名称
+     * @param objectName 对象名称
+     * @return 包装后的数据流
+     */
+    public InputStream countDownload(InputStream in, String operation, String objectName) {
+        return new CountingInputStream(in) {
+            private boolean recorded;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!recorded) {
+                        recorded = true;
+                        recordBytes(operation, objectName, getByteCount());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 记录一次回调
+     *
+     * @param status   回调状态, 未知状态码时为null
+     * @param fileType 回调中的文件类型, 没有时为null
+     */
+    public void recordCallback(OnlyOfficeCallBackStatus status, String fileType) {
+        Counter.builder("onlyoffice.callback")
+                .description("OnlyOffice回调次数")
+                .tag("status", status == null ? "UNKNOWN" : status.name())
+                .tag("file_type", fileTypeTag(fileType))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * 记录一次保存中从Document Server下载和向MinIO上传各自花费的时间
+     * <p>
+     * 保存是边下载边上传的, 等待Document Server返回数据的时间算作下载, 其余时间算作上传。
+     *
+     * @param fileType      文件类型
+     * @param downloadNanos 下载时间
+     * @param uploadNanos   上传时间
+     */
+    public void recordTransfer(String fileType, long downloadNanos, long uploadNanos) {
+        String tag = fileTypeTag(fileType);
+        Timer.builder("onlyoffice.save.transfer")
+                .description("保存时下载和上传的耗时")
+                .tag("phase", "download")
+                .tag("file_type", tag)
+                .register(meterRegistry)
+                .record(downloadNanos, TimeUnit.NANOSECONDS);
+        Timer.builder("onlyoffice.save.transfer")
+                .description("保存时下载和上传的耗时")
+                .tag("phase", "upload")
+                .tag("file_type", tag)
+                .register(meterRegistry)
+                .record(uploadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 从对象名称中取文件类型标签
+     *
+     * @param objectName 对象名称
+     * @return 文件类型标签
+     */
+    static String fileType(String objectName) {
+        if (objectName == null) {
+            return "none";
+        }
+        int dotIndex = objectName.lastIndexOf('.');
+        return dotIndex == -1 ? "none" : fileTypeTag(objectName.substring(dotIndex + 1));
+    }
+
+    /**
+     * 把文件类型转换为标签值
+     *
+     * @param fileType 文件类型(扩展名)
+     * @return 文件类型标签
+     */
+    static String fileTypeTag(String fileType) {
+        if (fileType == null || fileType.isEmpty()) {
+            return "none";
+        }
+        String lower = fileType.toLowerCase(Locale.ROOT);
+        return FILE_TYPES.contains(lower) ? lower : "other";
+    }
+
+    /**
+     * 记录读取耗时的数据流, 用来区分保存时等待下载和上传的时间
+     */
+    public static class ReadTimingInputStream extends CountingInputStream {
+
+        private long readNanos;
+
+        private long readStart;
+
+        public ReadTimingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        protected void beforeRead(int n) {
+            readStart = System.nanoTime();
+        }
+
+        @Override
+        protected void afterRead(int n) {
+            readNanos += System.nanoTime() - readStart;
+            super.afterRead(n);
+        }
+
+        /**
+         * @return 阻塞在读取上的总时间(纳秒)
+         */
+        public long getReadNanos() {
+            return readNanos;
+        }
+    }
+}
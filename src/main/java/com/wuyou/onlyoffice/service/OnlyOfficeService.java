@@ -1,31 +1,42 @@
 package cn.superlu.onlyoffice.service;
 
-import cn.superlu.onlyoffice.config.OnlyOfficeConfig;
+import cn.superlu.onlyoffice.config.BatchConfig;
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.UploadConfig;
+import cn.superlu.onlyoffice.constant.OnlyOfficeCallBackStatus;
+import cn.superlu.onlyoffice.dto.BatchItemDTO;
+import cn.superlu.onlyoffice.dto.BatchResultDTO;
+import cn.superlu.onlyoffice.dto.CallbackDTO;
 import cn.superlu.onlyoffice.dto.FileInfoDTO;
-import com.alibaba.fastjson.JSONObject;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
-import org.apache.tomcat.util.http.fileupload.FileItem;
-import org.apache.tomcat.util.http.fileupload.disk.DiskFileItemFactory;
-import org.springframework.http.MediaType;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUpload;
+import org.apache.tomcat.util.http.fileupload.impl.InvalidContentTypeException;
+import org.apache.tomcat.util.http.fileupload.servlet.ServletRequestContext;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Collections;
-import java.util.HashMap;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Service
@@ -33,26 +44,40 @@ import java.util.UUID;
 public class OnlyOfficeService {
 
     private final MinioService minioService;
-    /**
-     * //     * 1 - 正在编辑文档，
-     * //     * 2 - 文档已准备好保存，
-     * //     * 3 - 发生文档保存错误，
-     * //     * 4 - 文档已关闭，没有任何更改，
-     * //     * 6 - 正在编辑文档，但保存了当前文档状态，
-     * //     * 7 - 强制保存文档时发生错误。
-     * //
-     */
-    private static final Map<Integer, String> documentStatusMap;
 
-    static {
-        Map<Integer, String> aMap = new HashMap<>();
-        aMap.put(1, "status: 1 正在编辑文档");
-        aMap.put(2, "status: 2 文档已准备好保存");
-        aMap.put(3, "status: 3 发生文档保存错误");
-        aMap.put(4, "status: 4 文档已关闭，没有任何更改");
-        aMap.put(6, "status: 6 正在编辑文档，但保存了当前文档状态");
-        aMap.put(7, "status: 7 强制保存文档时发生错误");
-        documentStatusMap = Collections.unmodifiableMap(aMap);
+    private final CallbackSaveService callbackSaveService;
+
+    private final FileIndexService fileIndexService;
+
+    private final OnlyOfficeMetrics metrics;
+
+    private final EditorConfigService editorConfigService;
+
+    private final BatchConfig batchConfig;
+
+    private final IoThreadFactory ioThreadFactory;
+
+    private final UploadPipeline uploadPipeline;
+
+    private final UploadConfig uploadConfig;
+
+    private final ThumbnailService thumbnailService;
+
+    private final VersionService versionService;
+
+    // 批量上传的线程池, 线程数限制了所有请求同时上传的文件数
+    private ThreadPoolExecutor uploadPool;
+
+    @PostConstruct
+    public void init() {
+        uploadPool = new ThreadPoolExecutor(batchConfig.getUploadParallelism(), batchConfig.getUploadParallelism(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                ioThreadFactory.threadFactory("onlyoffice-batch-upload-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        uploadPool.shutdownNow();
     }
 
     /**
@@ -62,105 +87,281 @@ public class OnlyOfficeService {
      * @return 文件信息
      */
     public FileInfoDTO uploadFile(MultipartFile file) {
+        return uploadFile(file, ThumbnailService.Priority.INTERACTIVE);
+    }
+
+    private FileInfoDTO uploadFile(MultipartFile file, ThumbnailService.Priority priority) {
         try {
             String originalFilename = file.getOriginalFilename();
-            String fileExtension = getFileExtension(originalFilename);
-            String fileKey = UUID.randomUUID().toString().replace("-", "");
-            String objectName = fileKey + "." + fileExtension;
-
-            // 上传到MinIO
-            boolean uploadResult = minioService.uploadFile(file, objectName, file.getContentType());
-            if (!uploadResult) {
-                return null;
-            }
 
-            // 获取文件访问URL
-            String fileUrl = minioService.getFileUrl(objectName);
-            log.info("文件访问URL: {}", fileUrl);
-            FileInfoDTO fileInfo = new FileInfoDTO();
-            fileInfo.setFileName(originalFilename);
-            fileInfo.setFileUrl(fileUrl);
-            fileInfo.setFileType(fileExtension);
-            fileInfo.setFileKey(fileKey);
+            // 按内容检测文件类型, 检测只通过mark/reset查看文件开头, 之后从同一个数据流上传
+            try (InputStream in = file.getInputStream()) {
+                UploadContext upload = uploadPipeline.process(originalFilename, file.getContentType(), in, file.getSize());
+                if (upload.isRejected()) {
+                    return null;
+                }
+                String fileKey = UUID.randomUUID().toString().replace("-", "");
+                String fileExtension = objectExtension(originalFilename, upload);
+                String objectName = fileKey + "." + fileExtension;
 
-            return fileInfo;
+                // 上传到MinIO, 去重模式下需要上传时从file重新读取
+                boolean uploadResult = minioService.uploadFile(upload.getStream(), file, file.getSize(), objectName, upload.getContentType());
+                if (!uploadResult) {
+                    return null;
+                }
+                return uploaded(originalFilename, fileKey, fileExtension, file.getSize(), priority);
+            }
         } catch (Exception e) {
             log.error("上传文件失败: {}", e.getMessage(), e);
             return null;
         }
     }
 
+    /**
+     * 流式上传: 逐个读取multipart请求中的文件, 直接写入MinIO, 不经过容器的临时文件
+     * <p>
+     * 文件长度未知, 按分片上传, 每个上传只在内存中缓存一个分片; 请求中的文件依次上传。
+     *
+     * @param request HTTP请求, 请求体不能已被解析
+     * @return 批量处理结果, 不是multipart请求时返回null
+     */
+    public BatchResultDTO uploadStream(HttpServletRequest request) {
+        FileUpload fileUpload = new FileUpload();
+        fileUpload.setFileSizeMax(uploadConfig.getStreamMaxFileBytes());
+        fileUpload.setFileCountMax(batchConfig.getMaxUploadFiles());
+
+        List<BatchItemDTO> items = new ArrayList<>();
+        try {
+            FileItemIterator iterator = fileUpload.getItemIterator(new ServletRequestContext(request));
+            while (iterator.hasNext()) {
+                FileItemStream item = iterator.next();
+                // 表单字段和空的文件字段跳过, 读取下一项时会自动跳过未读的数据
+                if (item.isFormField() || isBlank(item.getName())) {
+                    continue;
+                }
+                BatchItemDTO result = new BatchItemDTO();
+                result.setName(item.getName());
+                try (InputStream in = item.openStream()) {
+                    result.setFile(uploadStream(item.getName(), item.getContentType(), in));
+                }
+                result.setSuccess(result.getFile() != null);
+                result.setMessage(result.isSuccess() ? null : "文件上传失败");
+                items.add(result);
+            }
+        } catch (InvalidContentTypeException e) {
+            log.warn("流式上传的请求不是multipart格式: {}", e.getMessage());
+            return null;
+        } catch (IOException e) {
+            // 超出大小限制或连接中断, 之后的文件无法继续读取
+            log.error("读取上传请求失败: {}", e.getMessage(), e);
+            BatchItemDTO result = new BatchItemDTO();
+            result.setSuccess(false);
+            result.setMessage("读取上传请求失败: " + e.getMessage());
+            items.add(result);
+        }
+        return toBatchResult(items);
+    }
+
+    private FileInfoDTO uploadStream(String originalFilename, String declaredType, InputStream in) throws IOException {
+        CountingInputStream counting = new CountingInputStream(in);
+        UploadContext upload = uploadPipeline.process(originalFilename, declaredType, counting, -1);
+        if (upload.isRejected()) {
+            return null;
+        }
+        String fileKey = UUID.randomUUID().toString().replace("-", "");
+        String fileExtension = objectExtension(originalFilename, upload);
+        if (!minioService.uploadStream(upload.getStream(), -1, fileKey + "." + fileExtension, upload.getContentType())) {
+            return null;
+        }
+        return uploaded(originalFilename, fileKey, fileExtension, counting.getByteCount(), ThumbnailService.Priority.BULK);
+    }
+
+    /**
+     * 对象的扩展名: 和实际内容不符时以检测结果为准, 编辑器按扩展名选择打开方式
+     */
+    private String objectExtension(String originalFilename, UploadContext upload) {
+        String fileExtension = getFileExtension(originalFilename);
+        if (!upload.getExtension().isEmpty() && !upload.getExtension().equalsIgnoreCase(fileExtension)) {
+            return upload.getExtension();
+        }
+        return fileExtension;
+    }
+
+    /**
+     * 上传完成后按MinIO中的元数据更新索引, 提交缩略图任务并返回文件信息
+     */
+    private FileInfoDTO uploaded(String originalFilename, String fileKey, String fileExtension, long size,
+                                 ThumbnailService.Priority priority) {
+        String objectName = fileKey + "." + fileExtension;
+        // 读取元数据失败时文件已上传成功, 由定期校正加入索引
+        FileInfoDTO indexed = fileIndexService.refresh(objectName);
+        if (indexed != null) {
+            thumbnailService.submit(objectName, indexed.getVersion(), priority);
+        }
+
+        // 获取文件访问URL
+        String fileUrl = minioService.getFileUrl(objectName);
+        log.info("文件访问URL: {}", fileUrl);
+        FileInfoDTO fileInfo = new FileInfoDTO();
+        fileInfo.setFileName(originalFilename);
+        fileInfo.setFileUrl(fileUrl);
+        fileInfo.setFileType(fileExtension);
+        fileInfo.setFileKey(fileKey);
+        fileInfo.setFileSize(size);
+        fileInfo.setUploadTime(indexed != null ? indexed.getUploadTime() : System.currentTimeMillis());
+        fileInfo.setVersion(indexed != null ? indexed.getVersion() : null);
+        return fileInfo;
+    }
+
+    /**
+     * 批量上传文件, 多个文件同时上传, 每个文件单独返回结果
+     *
+     * @param files 上传的文件
+     * @return 批量处理结果, 文件数超过上限时返回null
+     */
+    public BatchResultDTO uploadFiles(List<MultipartFile> files) {
+        if (files.size() > batchConfig.getMaxUploadFiles()) {
+            return null;
+        }
+        List<CompletableFuture<FileInfoDTO>> futures = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            futures.add(CompletableFuture.supplyAsync(() -> uploadFile(file, ThumbnailService.Priority.BULK), uploadPool));
+        }
+
+        List<BatchItemDTO> items = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            FileInfoDTO fileInfo = futures.get(i).join();
+            BatchItemDTO item = new BatchItemDTO();
+            item.setName(files.get(i).getOriginalFilename());
+            item.setSuccess(fileInfo != null);
+            item.setMessage(fileInfo != null ? null : "文件上传失败");
+            item.setFile(fileInfo);
+            items.add(item);
+        }
+        return toBatchResult(items);
+    }
+
+    /**
+     * 删除文件及其缩略图和历史版本, 文件键对应的对象名从文件索引中查找
+     *
+     * @param fileKey 文件键
+     * @return 是否删除成功, 文件不存在时返回false
+     */
+    public boolean deleteFile(String fileKey) {
+        FileInfoDTO file = fileIndexService.find(fileKey);
+        if (file == null) {
+            log.warn("删除的文件不存在: {}", fileKey);
+            return false;
+        }
+        if (!minioService.deleteFile(file.getFileName())) {
+            return false;
+        }
+        fileIndexService.remove(file.getFileName());
+        thumbnailService.remove(fileKey);
+        deleteVersions(List.of(fileKey));
+        return true;
+    }
+
+    /**
+     * 批量删除文件及其缩略图和历史版本, 按批调用MinIO的批量删除接口, 每个文件单独返回结果
+     *
+     * @param fileKeys 文件键
+     * @return 批量处理结果, 文件数超过上限时返回null
+     */
+    public BatchResultDTO deleteFiles(List<String> fileKeys) {
+        if (fileKeys.size() > batchConfig.getMaxDeleteFiles()) {
+            return null;
+        }
+        // 文件键 -> 对象名, 索引中没有的文件不发给MinIO
+        Map<String, String> objectNames = new LinkedHashMap<>();
+        for (String fileKey : fileKeys) {
+            FileInfoDTO file = fileIndexService.find(fileKey);
+            if (file != null) {
+                objectNames.put(fileKey, file.getFileName());
+            }
+        }
+        // 缩略图和文档在同一批中删除, 删除前取消正在生成的缩略图, 避免删除后又写入
+        List<String> deleting = new ArrayList<>(objectNames.values());
+        objectNames.keySet().forEach(fileKey -> {
+            thumbnailService.forget(fileKey);
+            deleting.add(thumbnailService.thumbnailName(fileKey));
+        });
+        Set<String> failed = new HashSet<>(minioService.deleteFiles(deleting));
+        List<String> deleted = new ArrayList<>(objectNames.size());
+        objectNames.forEach((fileKey, objectName) -> {
+            if (!failed.contains(objectName)) {
+                fileIndexService.remove(objectName);
+                deleted.add(fileKey);
+            }
+        });
+        deleteVersions(deleted);
+
+        List<BatchItemDTO> items = new ArrayList<>(fileKeys.size());
+        for (String fileKey : fileKeys) {
+            String objectName = objectNames.get(fileKey);
+            BatchItemDTO item = new BatchItemDTO();
+            item.setName(fileKey);
+            item.setSuccess(objectName != null && !failed.contains(objectName));
+            item.setMessage(objectName == null ? "文件不存在" : item.isSuccess() ? null : "文件删除失败");
+            items.add(item);
+        }
+        return toBatchResult(items);
+    }
+
+    /**
+     * 删除已删除文档的历史版本, 失败只记录日志, 不影响删除结果
+     */
+    private void deleteVersions(List<String> fileKeys) {
+        if (fileKeys.isEmpty()) {
+            return;
+        }
+        List<String> failed = versionService.delete(fileKeys);
+        if (failed == null || !failed.isEmpty()) {
+            log.warn("删除历史版本失败: {}", failed == null ? fileKeys : failed);
+        }
+    }
+
+    private BatchResultDTO toBatchResult(List<BatchItemDTO> items) {
+        BatchResultDTO result = new BatchResultDTO();
+        result.setItems(items);
+        result.setSucceeded((int) items.stream().filter(BatchItemDTO::isSuccess).count());
+        result.setFailed(items.size() - result.getSucceeded());
+        return result;
+    }
+
     /**
      * 处理OnlyOffice回调
      *
-     * @param body 回调请求体
+     * @param callback 回调请求体
      * @return 处理结果
      */
-    public String handleCallback(String body) {
+    public String handleCallback(CallbackDTO callback) {
         try {
-            JSONObject jsonObj = JSONObject.parseObject(body);
-            log.info("OnlyOffice回调状态: {}", documentStatusMap.get(jsonObj.get("status")));
+            OnlyOfficeCallBackStatus status = callback.getStatus();
+            log.info("OnlyOffice回调状态: {}", status == null ? "未知" : status.getCode() + " " + status.getMessage());
+            metrics.recordCallback(status, callback.getFileType());
 
             // 检查状态值，2表示保存文档, 6表示强制保存
-            if (jsonObj != null && (jsonObj.getIntValue("status") == 2 || jsonObj.getIntValue("status") == 6)) {
-                String downloadUri = jsonObj.getString("url");
-                String key = jsonObj.getString("key");
-                String fileType = jsonObj.getString("filetype");
-
-                // 创建临时文件保存
-                URL url = new URL(downloadUri);
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                try (InputStream stream = connection.getInputStream()) {
-                    // 确保临时目录存在
-                    Path tempDirPath = Paths.get(System.getProperty("java.io.tmpdir"), "onlyoffice");
-                    if (!Files.exists(tempDirPath)) {
-                        Files.createDirectories(tempDirPath);
-                    }
-
-                    // 将文件保存到临时目录
-                    String tempFile = tempDirPath.toString() + File.separator + key + "." + fileType;
-                    try (FileOutputStream out = new FileOutputStream(tempFile)) {
-                        byte[] buffer = new byte[4096];
-                        int read;
-                        while ((read = stream.read(buffer)) != -1) {
-                            out.write(buffer, 0, read);
-                        }
-                        out.flush();
-                    }
-
-                    // 将临时文件上传到MinIO
-                    File file = new File(tempFile);
-
-                    String objectName = key + "." + fileType;
-
-                    // 确定文件类型
-                    String contentType;
-                    switch (fileType.toLowerCase()) {
-                        case "docx":
-                            contentType = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
-                            break;
-                        case "xlsx":
-                            contentType = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
-                            break;
-                        case "pptx":
-                            contentType = "application/vnd.openxmlformats-officedocument.presentationml.presentation";
-                            break;
-                        case "pdf":
-                            contentType = "application/pdf";
-                            break;
-                        default:
-                            contentType = "application/octet-stream";
-                    }
-
-                    // 上传到MinIO并替换原文件
-                    minioService.uploadFile(file, objectName, contentType);
-
-                    // 删除临时文件
-                    if (file.exists()) {
-                        file.delete();
-                    }
+            if (status == OnlyOfficeCallBackStatus.READY_TO_SAVE || status == OnlyOfficeCallBackStatus.SAVE) {
+                String downloadUri = callback.getUrl();
+                String fileType = callback.getFileType();
+                if (isBlank(downloadUri) || isBlank(callback.getKey()) || isBlank(fileType)) {
+                    return "{\"error\":1,\"message\":\"回调参数不完整\"}";
+                }
+                // 文档键带有版本号, 保存时使用文件键
+                String key = EditorConfigService.fileKeyOf(callback.getKey());
+                editorConfigService.invalidate(key);
+
+                // 强制保存后编辑会话继续, 文档键必须保持不变; 状态2之后会话结束, 保存后使用新的文档键
+                String documentVersion = status == OnlyOfficeCallBackStatus.SAVE
+                        ? EditorConfigService.versionOf(callback.getKey()) : null;
+
+                // 入队后立即应答, 下载和上传由保存队列异步完成; 队列已满时返回错误, Document Server会稍后重试
+                long version = parseLastSave(callback.getLastsave());
+                if (!callbackSaveService.submit(key, downloadUri, callback.getChangesurl(), fileType, status.getCode(), version,
+                        documentVersion)) {
+                    return "{\"error\":1,\"message\":\"保存队列繁忙\"}";
                 }
-                connection.disconnect();
             }
 
             // 返回成功响应，很重要！
@@ -185,4 +386,25 @@ public class OnlyOfficeService {
         return (dotIndex == -1) ? "" : filename.substring(dotIndex + 1);
     }
 
+    /**
+     * 解析回调中的lastsave时间, 缺失或格式不对时以收到回调的时间为准
+     *
+     * @param lastSave 最后保存时间, 如2024-01-01T08:00:00.000Z
+     * @return 时间戳
+     */
+    private long parseLastSave(String lastSave) {
+        if (isBlank(lastSave)) {
+            return System.currentTimeMillis();
+        }
+        try {
+            return Instant.parse(lastSave).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return System.currentTimeMillis();
+        }
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
 }
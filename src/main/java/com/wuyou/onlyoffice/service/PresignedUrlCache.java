@@ -0,0 +1,141 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.MinioConfig;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 预签名URL缓存
+ * <p>
+ * 按对象名缓存已签名的URL, 在距离过期还剩refresh-before-hours之前一直复用。
+ * 超出容量时淘汰最久未使用的项, 对象被覆盖或删除时失效。
+ */
+@Component
+public class PresignedUrlCache {
+
+    private final int maxSize;
+
+    private final long refreshBeforeMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // 按访问顺序排列, 最久未使用的在最前面
+    private final LinkedHashMap<String, CachedUrl> cache;
+
+    private final Counter hitCounter;
+
+    private final Counter missCounter;
+
+    private final Counter evictionCounter;
+
+    public PresignedUrlCache(MinioConfig minioConfig, MeterRegistry meterRegistry) {
+        this.maxSize = minioConfig.getUrlCacheSize();
+        this.refreshBeforeMillis = TimeUnit.HOURS.toMillis(minioConfig.getUrlRefreshBeforeHours());
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedUrl> eldest) {
+                if (size() > maxSize) {
+                    evictionCounter.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.hitCounter = Counter.builder("onlyoffice.url.cache").tag("result", "hit")
+                .description("预签名URL缓存命中次数").register(meterRegistry);
+        this.missCounter = Counter.builder("onlyoffice.url.cache").tag("result", "miss")
+                .description("预签名URL缓存未命中次数").register(meterRegistry);
+        this.evictionCounter = Counter.builder("onlyoffice.url.cache.evictions")
+                .description("预签名URL缓存淘汰次数").register(meterRegistry);
+        Gauge.builder("onlyoffice.url.cache.size", this, PresignedUrlCache::size)
+                .description("预签名URL缓存项数").register(meterRegistry);
+    }
+
+    /**
+     * 获取对象的预签名URL, 缓存中没有或即将过期时重新签名
+     *
+     * @param objectName 对象名称
+     * @param expiresAt  新签名URL的过期时间（时间戳）
+     * @param signer     签名函数, 签名失败时返回空字符串
+     * @return 预签名URL
+     */
+    public String get(String objectName, long expiresAt, Function<String, String> signer) {
+        long now = System.currentTimeMillis();
+        lock.lock();
+        try {
+            CachedUrl cached = cache.get(objectName);
+            if (cached != null && cached.expiresAt - refreshBeforeMillis > now) {
+                hitCounter.increment();
+                return cached.url;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 签名在锁外进行, 并发未命中时最多重复签名一次, 不影响正确性
+        missCounter.increment();
+        String url = signer.apply(objectName);
+        if (url != null && !url.isEmpty()) {
+            lock.lock();
+            try {
+                cache.put(objectName, new CachedUrl(url, expiresAt));
+            } finally {
+                lock.unlock();
+            }
+        }
+        return url;
+    }
+
+    /**
+     * 对象被覆盖或删除时使缓存失效
+     *
+     * @param objectName 对象名称
+     */
+    public void invalidate(String objectName) {
+        lock.lock();
+        try {
+            cache.remove(objectName);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清空缓存, 可能遗漏了其他节点的变更时使用
+     */
+    public void invalidateAll() {
+        lock.lock();
+        try {
+            cache.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return cache.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class CachedUrl {
+        private final String url;
+        private final long expiresAt;
+
+        private CachedUrl(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.OnlyOfficeConfig;
+import cn.superlu.onlyoffice.config.ThumbnailConfig;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.minio.messages.Item;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文档缩略图
+ * <p>
+ * 上传和回调保存后在后台通过Document Server的转换接口(ConvertService.ashx)生成第一页的PNG缩略图,
+ * 保存为 thumbnails/{文件键}.png。文件列表只查内存中已生成缩略图的文件键, 不访问MinIO。
+ * <p>
+ * 任务按优先级执行: 用户刚上传或编辑的文档优先, 批量导入的文档在后。
+ * 生成缩略图使用单独的少量线程, 不占用保存队列; 同一文档排队中的任务只保留一个。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ThumbnailService {
+
+    private static final String THUMBNAIL_TYPE = "png";
+
+    private static final String THUMBNAIL_CONTENT_TYPE = "image/png";
+
+    // 转换用的文档键前缀, 和编辑器的文档键区分, 避免Document Server把缩略图转换当作同一文档的编辑会话
+    private static final String CONVERT_KEY_PREFIX = "thumb_";
+
+    private final MinioService minioService;
+
+    private final DocumentServerClient documentServerClient;
+
+    private final DocumentServerSigner documentServerSigner;
+
+    private final CoordinationBackend coordinationBackend;
+
+    private final OnlyOfficeConfig onlyOfficeConfig;
+
+    private final ThumbnailConfig thumbnailConfig;
+
+    private final MeterRegistry meterRegistry;
+
+    private final IoThreadFactory ioThreadFactory;
+
+    // 文件键 -> 排队中的任务
+    private final ConcurrentHashMap<String, ThumbnailTask> pending = new ConcurrentHashMap<>();
+
+    // 文件键 -> 正在执行的任务, 文档删除时标记取消
+    private final ConcurrentHashMap<String, ThumbnailTask> running = new ConcurrentHashMap<>();
+
+    // 已生成缩略图的文件键
+    private final Set<String> ready = ConcurrentHashMap.newKeySet();
+
+    // 任务序号, 优先级相同时先提交的先执行
+    private final AtomicLong sequence = new AtomicLong();
+
+    private ThreadPoolExecutor workerPool;
+
+    private Counter droppedCounter;
+
+    /**
+     * 任务优先级, 越靠前越先执行
+     */
+    public enum Priority {
+        // 用户正在查看的文档: 单个上传、编辑保存、恢复版本
+        INTERACTIVE,
+        // 批量导入的文档
+        BULK
+    }
+
+    @PostConstruct
+    public void init() {
+        workerPool = new ThreadPoolExecutor(thumbnailConfig.getWorkers(), thumbnailConfig.getWorkers(),
+                0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(),
+                ioThreadFactory.threadFactory("onlyoffice-thumbnail-"));
+        Gauge.builder("onlyoffice.thumbnail.queue.depth", pending, ConcurrentHashMap::size)
+                .description("等待生成缩略图的文档数")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("onlyoffice.thumbnail.dropped")
+                .description("队列已满被丢弃的缩略图任务数")
+                .register(meterRegistry);
+
+        // 其他节点生成或删除的缩略图
+        coordinationBackend.subscribe(new CoordinationBackend.ChangeListener() {
+            @Override
+            public void changed(String objectName) {
+                if (objectName.startsWith(thumbnailConfig.getPrefix())) {
+                    String fileKey = fileKeyOf(objectName);
+                    if (minioService.statFile(objectName) != null) {
+                        ready.add(fileKey);
+                    } else {
+                        ready.remove(fileKey);
+                    }
+                }
+            }
+
+            @Override
+            public void reset() {
+                loadReady();
+            }
+        });
+        loadReady();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // 未生成的缩略图不保留, 文档下次保存时重新生成
+        workerPool.shutdownNow();
+    }
+
+    /**
+     * 提交生成缩略图的任务, 立即返回
+     *
+     * @param objectName 文档的对象名称
+     * @param version    文档版本, 用于转换的文档键
+     * @param priority   优先级
+     */
+    public void submit(String objectName, String version, Priority priority) {
+        if (!thumbnailConfig.isEnabled()) {
+            return;
+        }
+        int dotIndex = objectName.lastIndexOf('.');
+        if (dotIndex <= 0) {
+            return;
+        }
+        String fileKey = objectName.substring(0, dotIndex);
+        ThumbnailTask task = new ThumbnailTask(objectName, fileKey, objectName.substring(dotIndex + 1), version,
+                priority, sequence.incrementAndGet());
+        boolean[] queued = new boolean[1];
+        boolean[] dropped = new boolean[1];
+        pending.compute(fileKey, (k, old) -> {
+            // 排队中的任务执行时读取的是最新内容, 只在新任务优先级更高时替换
+            if (old != null && old.priority.compareTo(priority) <= 0) {
+                return old;
+            }
+            if (old == null && pending.size() >= thumbnailConfig.getQueueCapacity()) {
+                dropped[0] = true;
+                return null;
+            }
+            queued[0] = true;
+            return task;
+        });
+        if (dropped[0]) {
+            droppedCounter.increment();
+            log.warn("缩略图队列已满, 丢弃任务: {}", objectName);
+        }
+        if (queued[0]) {
+            workerPool.execute(task);
+        }
+    }
+
+    /**
+     * 获取缩略图的访问URL
+     *
+     * @param fileKey 文件键
+     * @return 预签名URL, 还没有缩略图时返回null
+     */
+    public String getThumbnailUrl(String fileKey) {
+        return ready.contains(fileKey) ? minioService.getFileUrl(thumbnailName(fileKey)) : null;
+    }
+
+    /**
+     * 是否已生成缩略图, 只查内存
+     *
+     * @param fileKey 文件键
+     * @return 是否已有缩略图
+     */
+    public boolean hasThumbnail(String fileKey) {
+        return ready.contains(fileKey);
+    }
+
+    /**
+     * 缩略图的对象名称, 删除文档时一起删除
+     *
+     * @param fileKey 文件键
+     * @return 对象名称
+     */
+    public String thumbnailName(String fileKey) {
+        return thumbnailConfig.getPrefix() + fileKey + "." + THUMBNAIL_TYPE;
+    }
+
+    /**
+     * 文档删除后删除缩略图
+     *
+     * @param fileKey 文件键
+     */
+    public void remove(String fileKey) {
+        forget(fileKey);
+        minioService.deleteFile(thumbnailName(fileKey));
+    }
+
+    /**
+     * 文档删除时清除内存中的记录, 排队中的任务不再执行, 正在执行的任务不再写入缩略图
+     *
+     * @param fileKey 文件键
+     */
+    public void forget(String fileKey) {
+        ThumbnailTask runningTask = running.get(fileKey);
+        if (runningTask != null) {
+            runningTask.cancelled = true;
+        }
+        ready.remove(fileKey);
+        ThumbnailTask task = pending.remove(fileKey);
+        if (task != null) {
+            workerPool.remove(task);
+        }
+    }
+
+    private void generate(ThumbnailTask task) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        boolean success = false;
+        try {
+            String fileUrl = convert(task);
+            if (fileUrl == null || task.cancelled) {
+                return;
+            }
+            try (DocumentServerClient.Download download = documentServerClient.download(fileUrl).join()) {
+                success = minioService.uploadStream(download.getBody(), download.getContentLength(),
+                        thumbnailName(task.fileKey), THUMBNAIL_CONTENT_TYPE);
+            }
+            if (!success) {
+                return;
+            }
+            // 上传期间文档被删除: 删除文档时缩略图可能还没写入, 由这里删除
+            if (task.cancelled) {
+                minioService.deleteFile(thumbnailName(task.fileKey));
+                return;
+            }
+            ready.add(task.fileKey);
+            // 取消标记在清除记录之前设置, 两者之间加入的记录在这里撤销
+            if (task.cancelled) {
+                ready.remove(task.fileKey);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("生成缩略图失败: {}, {}", task.objectName, e.getMessage());
+        } finally {
+            sample.stop(meterRegistry.timer("onlyoffice.thumbnail.duration", "result", success ? "success" : "failure",
+                    "priority", task.priority.name().toLowerCase(Locale.ROOT)));
+        }
+    }
+
+    /**
+     * 调用转换接口, 未完成时按相同的文档键再次查询, 直到完成或超时
+     *
+     * @return 缩略图的下载地址, 转换失败时返回null
+     */
+    private String convert(ThumbnailTask task) throws InterruptedException {
+        Map<String, Object> thumbnail = new LinkedHashMap<>();
+        thumbnail.put("aspect", 1);
+        thumbnail.put("first", true);
+        thumbnail.put("width", thumbnailConfig.getWidth());
+        thumbnail.put("height", thumbnailConfig.getHeight());
+
+        Map<String, Object> payload = new LinkedHashMap<>();
+        payload.put("async", false);
+        payload.put("filetype", task.fileType);
+        payload.put("key", CONVERT_KEY_PREFIX + task.fileKey + "_" + task.version);
+        payload.put("outputtype", THUMBNAIL_TYPE);
+        payload.put("thumbnail", thumbnail);
+        payload.put("title", task.objectName);
+        payload.put("url", onlyOfficeConfig.getFileUrlPrefix() + task.objectName);
+        if (documentServerSigner.isEnabled()) {
+            payload.put("token", documentServerSigner.sign(payload));
+        }
+        String body = JSON.toJSONString(payload);
+        String url = convertServiceUrl();
+
+        long deadline = System.currentTimeMillis() + thumbnailConfig.getConvertTimeoutMillis();
+        while (true) {
+            JSONObject result = JSON.parseObject(documentServerClient.postJson(url, body).join());
+            if (result.containsKey("error")) {
+                log.warn("Document Server转换失败: {}, 错误码 {}", task.objectName, result.getIntValue("error"));
+                return null;
+            }
+            if (result.getBooleanValue("endConvert")) {
+                return result.getString("fileUrl");
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                log.warn("等待缩略图转换超时: {}", task.objectName);
+                return null;
+            }
+            TimeUnit.MILLISECONDS.sleep(thumbnailConfig.getPollIntervalMillis());
+        }
+    }
+
+    private String convertServiceUrl() {
+        String base = onlyOfficeConfig.getDocumentServerUrl();
+        return (base.endsWith("/") ? base : base + "/") + "ConvertService.ashx";
+    }
+
+    /**
+     * 从MinIO加载已有缩略图的文件键, MinIO不可用时只记录日志
+     */
+    private void loadReady() {
+        try {
+            Set<String> keys = ConcurrentHashMap.newKeySet();
+            for (Item item : minioService.listObjects(thumbnailConfig.getPrefix(), false)) {
+                if (!item.isDir()) {
+                    keys.add(fileKeyOf(item.objectName()));
+                }
+            }
+            ready.retainAll(keys);
+            ready.addAll(keys);
+            log.info("已加载缩略图: {} 个", keys.size());
+        } catch (Exception e) {
+            log.warn("加载缩略图列表失败: {}", e.getMessage());
+        }
+    }
+
+    private String fileKeyOf(String objectName) {
+        String name = objectName.substring(thumbnailConfig.getPrefix().length());
+        int dotIndex = name.lastIndexOf('.');
+        return dotIndex > 0 ? name.substring(0, dotIndex) : name;
+    }
+
+    /**
+     * 缩略图任务, 按优先级和提交顺序排序
+     */
+    private final class ThumbnailTask implements Runnable, Comparable<ThumbnailTask> {
+        private final String objectName;
+        private final String fileKey;
+        private final String fileType;
+        private final String version;
+        private final Priority priority;
+        private final long sequence;
+        // 文档已删除, 不再写入缩略图
+        private volatile boolean cancelled;
+
+        private ThumbnailTask(String objectName, String fileKey, String fileType, String version, Priority priority, long sequence) {
+            this.objectName = objectName;
+            this.fileKey = fileKey;
+            this.fileType = fileType;
+            this.version = version;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            // 先登记为执行中再出队, 出队后文档被删除时一定能标记到这个任务
+            running.put(fileKey, this);
+            try {
+                // 已被优先级更高的任务替换或文档已删除
+                if (!pending.remove(fileKey, this)) {
+                    return;
+                }
+                generate(this);
+            } finally {
+                running.remove(fileKey, this);
+            }
+        }
+
+        @Override
+        public int compareTo(ThumbnailTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package cn.superlu.onlyoffice.service;
+
+import lombok.Data;
+
+import java.io.InputStream;
+
+/**
+ * 一次上传在处理流程中的状态, 由各个处理阶段依次读取和修改
+ */
+@Data
+public class UploadContext {
+    // 文件名, 用作类型检测的提示
+    private String fileName;
+    // 客户端声明的内容类型, 没有时为null
+    private String declaredType;
+    // 数据长度, 未知时为-1
+    private long size;
+    // 待上传的数据流, 处理阶段可以替换为包装后的流, 但不能消费其中的数据
+    private InputStream stream;
+    // 按内容检测出的内容类型
+    private String contentType;
+    // 检测出的类型对应的扩展名(不含点), 无法确定时为空字符串
+    private String extension = "";
+    // 拒绝原因, 为null表示通过
+    private String rejectReason;
+
+    /**
+     * 拒绝本次上传
+     *
+     * @param reason 拒绝原因
+     */
+    public void reject(String reason) {
+        this.rejectReason = reason;
+    }
+
+    /**
+     * @return 是否被拒绝
+     */
+    public boolean isRejected() {
+        return rejectReason != null;
+    }
+}
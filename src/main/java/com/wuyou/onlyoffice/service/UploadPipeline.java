@@ -0,0 +1,46 @@
+package cn.superlu.onlyoffice.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * 上传处理流程: 在数据写入MinIO之前依次执行所有处理阶段
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UploadPipeline {
+
+    private final List<UploadStage> stages;
+
+    /**
+     * 执行所有处理阶段, 某个阶段拒绝后不再执行后面的阶段
+     *
+     * @param fileName     文件名
+     * @param declaredType 客户端声明的内容类型, 没有时为null
+     * @param stream       数据流
+     * @param size         数据长度, 未知时为-1
+     * @return 处理后的上传状态, 之后应从 {@link UploadContext#getStream()} 读取数据
+     * @throws IOException 读取数据流失败
+     */
+    public UploadContext process(String fileName, String declaredType, InputStream stream, long size) throws IOException {
+        UploadContext context = new UploadContext();
+        context.setFileName(fileName);
+        context.setDeclaredType(declaredType);
+        context.setStream(stream);
+        context.setSize(size);
+        for (UploadStage stage : stages) {
+            stage.process(context);
+            if (context.isRejected()) {
+                log.warn("拒绝上传: {}, {}", fileName, context.getRejectReason());
+                break;
+            }
+        }
+        return context;
+    }
+}
@@ -0,0 +1,20 @@
+package cn.superlu.onlyoffice.service;
+
+import java.io.IOException;
+
+/**
+ * 上传处理阶段
+ * <p>
+ * 实现类注册为Spring组件后自动加入 {@link UploadPipeline}, 按 {@link org.springframework.core.annotation.Order} 顺序执行。
+ * 处理阶段运行在上传线程上, 只能通过mark/reset查看数据流开头的少量数据, 不能额外读一遍文件。
+ */
+public interface UploadStage {
+
+    /**
+     * 处理一次上传, 需要拒绝时调用 {@link UploadContext#reject(String)}
+     *
+     * @param context 上传状态
+     * @throws IOException 读取数据流失败
+     */
+    void process(UploadContext context) throws IOException;
+}
@@ -0,0 +1,352 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.VersionConfig;
+import cn.superlu.onlyoffice.dto.SaveTaskDTO;
+import cn.superlu.onlyoffice.dto.VersionDTO;
+import io.minio.messages.Item;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 文档历史版本
+ * <p>
+ * 每次回调保存(状态2和6)记录一个版本: 回调中的修改记录压缩包(changesurl)在保存工作线程上下载,
+ * 保存为 versions/{文件键}/{版本号}.changes.zip; 距上一个完整快照超过 onlyoffice.versions.snapshot-interval-millis
+ * 或回调中没有修改记录时, 再把保存后的文档复制为同目录下的 {版本号}.{扩展名} 作为完整快照。
+ * 修改记录只有文档的几十分之一, 历史占用的空间随编辑时长增长, 不随自动保存的频率增长;
+ * 代价是只有修改记录的版本不能直接恢复, 只能在编辑器的历史中基于前一个版本查看, 恢复只能选择完整快照。
+ * 版本号是回调中的lastsave时间戳, 列出一个文档的版本只需要按前缀列一次目录。
+ * 恢复历史版本和回调保存一样经过保存队列(见 {@link CallbackSaveService#restore(String, long)})。
+ * <p>
+ * 开启去重时快照文件只是指针, 内容相同的快照共用一个数据块;
+ * 定时任务按保留策略删除旧版本: 最近一段时间内全部保留, 之后每天保留最后一个快照, 超过保留天数的删除,
+ * 超过全部保留期的修改记录随之删除; 保留期内最早的版本依赖的快照总是保留。
+ * 删除文档时同时删除它的整个版本目录。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class VersionService {
+
+    // 修改记录压缩包的后缀
+    private static final String CHANGES_SUFFIX = ".changes.zip";
+
+    // 修改记录压缩包的内容类型
+    private static final String CHANGES_CONTENT_TYPE = "application/zip";
+
+    private final MinioService minioService;
+
+    private final DocumentServerClient documentServerClient;
+
+    private final VersionConfig versionConfig;
+
+    /**
+     * 记录一次保存产生的版本, 失败只记录日志, 不影响保存结果; 修改记录在调用线程上下载并上传, 不占用HTTP客户端的线程
+     *
+     * @param task       保存任务
+     * @param objectName 保存后的对象名称
+     */
+    public void record(SaveTaskDTO task, String objectName) {
+        if (!versionConfig.isEnabled()) {
+            return;
+        }
+        String versionName = versionName(task.getKey(), task.getVersion());
+        boolean hasChanges = task.getChangesUrl() != null && !task.getChangesUrl().isBlank();
+        if (!hasChanges || snapshotDue(task.getKey(), task.getVersion())) {
+            if (!minioService.copyFile(objectName, versionName + "." + task.getFileType())) {
+                log.warn("记录历史版本失败: key={}, version={}", task.getKey(), task.getVersion());
+                return;
+            }
+        }
+        if (hasChanges) {
+            saveChanges(task, versionName + CHANGES_SUFFIX);
+        }
+    }
+
+    /**
+     * 距上一个完整快照是否已超过快照间隔, 列出失败时按需要快照处理
+     */
+    private boolean snapshotDue(String fileKey, long version) {
+        try {
+            for (VersionDTO previous : scan(fileKey).headMap(version, false).descendingMap().values()) {
+                if (previous.isSnapshot()) {
+                    return version - previous.getVersion() >= versionConfig.getSnapshotIntervalMillis();
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            log.warn("获取历史版本失败, 记录完整快照: key={}, {}", fileKey, e.getMessage());
+            return true;
+        }
+    }
+
+    private void saveChanges(SaveTaskDTO task, String changesName) {
+        try (DocumentServerClient.Download download = documentServerClient.download(task.getChangesUrl()).join()) {
+            if (!minioService.uploadStream(download.getBody(), download.getContentLength(), changesName, CHANGES_CONTENT_TYPE)) {
+                log.warn("保存修改记录失败: key={}, version={}", task.getKey(), task.getVersion());
+            }
+        } catch (RuntimeException e) {
+            log.warn("下载修改记录失败: key={}, {}", task.getKey(), e.getMessage());
+        }
+    }
+
+    /**
+     * 列出文档的历史版本
+     *
+     * @param fileKey 文件键
+     * @return 按版本号倒序的版本列表, 出错时返回null
+     */
+    public List<VersionDTO> list(String fileKey) {
+        try {
+            List<VersionDTO> versions = new ArrayList<>(scan(fileKey).values());
+            for (VersionDTO version : versions) {
+                String versionName = versionName(fileKey, version.getVersion());
+                if (version.isSnapshot()) {
+                    version.setFileUrl(minioService.getFileUrl(versionName + "." + version.getFileType()));
+                }
+                if (version.getChangesUrl() != null) {
+                    version.setChangesUrl(minioService.getFileUrl(versionName + CHANGES_SUFFIX));
+                }
+            }
+            versions.sort(Comparator.comparingLong(VersionDTO::getVersion).reversed());
+            return versions;
+        } catch (Exception e) {
+            log.error("获取历史版本失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 历史版本的对象名称, 恢复时从该对象复制
+     *
+     * @param fileKey 文件键
+     * @param version 版本号
+     * @return 版本(changesUrl未填充), 不存在、只有修改记录或出错时返回null
+     */
+    public VersionDTO find(String fileKey, long version) {
+        try {
+            VersionDTO target = scan(fileKey).get(version);
+            if (target == null) {
+                log.warn("历史版本不存在: key={}, version={}", fileKey, version);
+                return null;
+            }
+            if (!target.isSnapshot()) {
+                log.warn("历史版本只有修改记录, 不能恢复: key={}, version={}", fileKey, version);
+                return null;
+            }
+            target.setChangesUrl(null);
+            return target;
+        } catch (Exception e) {
+            log.error("获取历史版本失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 文档已记录的最新版本号
+     *
+     * @param fileKey 文件键
+     * @return 最新版本号, 没有版本或出错时返回Long.MIN_VALUE
+     */
+    public long latest(String fileKey) {
+        try {
+            TreeMap<Long, VersionDTO> versions = scan(fileKey);
+            return versions.isEmpty() ? Long.MIN_VALUE : versions.lastKey();
+        } catch (Exception e) {
+            log.error("获取历史版本失败: {}", e.getMessage(), e);
+            return Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * 历史版本文件的对象名称
+     *
+     * @param version 版本
+     * @return 对象名称
+     */
+    public String objectName(VersionDTO version) {
+        return versionName(version.getFileKey(), version.getVersion()) + "." + version.getFileType();
+    }
+
+    /**
+     * 删除文档的全部历史版本和修改记录, 删除文档后调用; 关闭版本记录后也会删除以前记录的版本
+     *
+     * @param fileKeys 文件键
+     * @return 删除失败的对象名, 列出失败时返回null
+     */
+    public List<String> delete(Collection<String> fileKeys) {
+        try {
+            List<String> objectNames = new ArrayList<>();
+            for (String fileKey : fileKeys) {
+                for (Item item : minioService.listObjects(versionConfig.getPrefix() + fileKey + "/", true)) {
+                    objectNames.add(item.objectName());
+                }
+            }
+            return minioService.deleteFiles(objectNames);
+        } catch (Exception e) {
+            log.error("删除历史版本失败: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 按保留策略删除旧版本
+     */
+    @Scheduled(initialDelayString = "${onlyoffice.versions.compact-interval-millis:3600000}", fixedDelayString = "${onlyoffice.versions.compact-interval-millis:3600000}")
+    public void compact() {
+        if (!versionConfig.isEnabled()) {
+            return;
+        }
+        try {
+            List<String> expired = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (Item dir : minioService.listObjects(versionConfig.getPrefix(), false)) {
+                if (!dir.isDir()) {
+                    continue;
+                }
+                String fileKey = dir.objectName().substring(versionConfig.getPrefix().length(), dir.objectName().length() - 1);
+                for (VersionDTO version : expired(scan(fileKey), now)) {
+                    String versionName = versionName(fileKey, version.getVersion());
+                    if (version.isSnapshot()) {
+                        expired.add(versionName + "." + version.getFileType());
+                    }
+                    if (version.getChangesUrl() != null) {
+                        expired.add(versionName + CHANGES_SUFFIX);
+                    }
+                }
+            }
+            List<String> failed = minioService.deleteFiles(expired);
+            log.info("历史版本压缩完成: 删除 {} 个文件, 失败 {} 个", expired.size() - failed.size(), failed.size());
+        } catch (Exception e) {
+            log.error("压缩历史版本失败: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按保留策略选出需要删除的版本, 最新的版本总是保留
+     * <p>
+     * 保留的最早版本只有修改记录时, 从它之前最近的快照开始全部保留, 修改记录才能从快照依次查看。
+     *
+     * @param versions 版本号 -> 版本, 按版本号升序
+     * @param now      当前时间
+     * @return 需要删除的版本
+     */
+    List<VersionDTO> expired(TreeMap<Long, VersionDTO> versions, long now) {
+        List<VersionDTO> expired = new ArrayList<>();
+        if (versions.isEmpty()) {
+            return expired;
+        }
+        long keepAllAfter = now - versionConfig.getKeepAllMillis();
+        Long oldestKept = versions.ceilingKey(keepAllAfter);
+        long keepFrom = oldestKept == null ? versions.lastKey() : oldestKept;
+        for (VersionDTO version : versions.headMap(keepFrom, true).descendingMap().values()) {
+            if (version.isSnapshot()) {
+                keepFrom = version.getVersion();
+                break;
+            }
+        }
+        LocalDate oldestDay = Instant.ofEpochMilli(now).atZone(ZoneId.systemDefault()).toLocalDate()
+                .minusDays(versionConfig.getKeepDailyDays());
+        Set<LocalDate> keptDays = new HashSet<>();
+        // 从新到旧遍历, 每天遇到的第一个快照就是当天最后一个
+        for (VersionDTO version : versions.descendingMap().values()) {
+            LocalDate day = Instant.ofEpochMilli(version.getVersion()).atZone(ZoneId.systemDefault()).toLocalDate();
+            if (version.getVersion() >= keepFrom) {
+                // 保留期之前因被依赖而保留的快照算作当天保留的快照
+                if (version.getVersion() < keepAllAfter && version.isSnapshot()) {
+                    keptDays.add(day);
+                }
+                continue;
+            }
+            if (!version.isSnapshot()) {
+                expired.add(version);
+                continue;
+            }
+            if (day.isBefore(oldestDay) || !keptDays.add(day)) {
+                expired.add(version);
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 列出文档目录下的版本文件
+     *
+     * @param fileKey 文件键
+     * @return 版本号 -> 版本(未填充访问URL, changesUrl不为null表示有修改记录, snapshot表示有完整快照)
+     */
+    private TreeMap<Long, VersionDTO> scan(String fileKey) throws Exception {
+        String dir = versionConfig.getPrefix() + fileKey + "/";
+        TreeMap<Long, VersionDTO> versions = new TreeMap<>();
+        List<String> changes = new ArrayList<>();
+        for (Item item : minioService.listObjects(dir, false)) {
+            String name = item.objectName().substring(dir.length());
+            if (item.isDir() || name.isEmpty()) {
+                continue;
+            }
+            if (name.endsWith(CHANGES_SUFFIX)) {
+                changes.add(name.substring(0, name.length() - CHANGES_SUFFIX.length()));
+                continue;
+            }
+            int dotIndex = name.indexOf('.');
+            if (dotIndex <= 0) {
+                continue;
+            }
+            long version;
+            try {
+                version = Long.parseLong(name.substring(0, dotIndex));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            VersionDTO dto = new VersionDTO();
+            dto.setVersion(version);
+            dto.setFileKey(fileKey);
+            dto.setFileType(name.substring(dotIndex + 1));
+            dto.setFileSize(minioService.sizeOf(item));
+            dto.setSnapshot(true);
+            versions.put(version, dto);
+        }
+        for (String change : changes) {
+            long version;
+            try {
+                version = Long.parseLong(change);
+            } catch (NumberFormatException e) {
+                // 不是本服务写入的文件
+                continue;
+            }
+            VersionDTO dto = versions.get(version);
+            if (dto == null) {
+                // 只有修改记录的版本, 文件类型沿用之前最近的快照
+                Map.Entry<Long, VersionDTO> previous = versions.lowerEntry(version);
+                dto = new VersionDTO();
+                dto.setVersion(version);
+                dto.setFileKey(fileKey);
+                dto.setFileType(previous == null ? null : previous.getValue().getFileType());
+                versions.put(version, dto);
+            }
+            dto.setChangesUrl(dir + change + CHANGES_SUFFIX);
+        }
+        return versions;
+    }
+
+    /**
+     * 版本文件的对象名(不含扩展名), 版本号补零到13位使对象名按时间排序
+     */
+    private String versionName(String fileKey, long version) {
+        return versionConfig.getPrefix() + fileKey + "/" + String.format("%013d", version);
+    }
+}
@@ -0,0 +1,333 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.CoordinationConfig;
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.SaveQueueConfig;
+import cn.superlu.onlyoffice.config.ThreadsConfig;
+import cn.superlu.onlyoffice.config.VersionConfig;
+import cn.superlu.onlyoffice.dto.SaveTaskDTO;
+import cn.superlu.onlyoffice.dto.VersionDTO;
+import com.alibaba.fastjson.JSON;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 保存队列的排队规则: 同一文档的任务合并、过期版本丢弃、失败后由更新的任务接替、从日志恢复的顺序
+ * <p>
+ * 实际的下载和写入被替换为由测试控制完成时机的保存, 只验证accept/complete的调度结果。
+ */
+class CallbackSaveServiceTest {
+
+    private static final String KEY = "doc";
+
+    @TempDir
+    Path journalDir;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SaveQueueConfig saveQueueConfig = new SaveQueueConfig();
+
+    private RecordingSaveService service;
+
+    @BeforeEach
+    void setUp() {
+        saveQueueConfig.setJournalDir(journalDir.toString());
+        saveQueueConfig.setRetryDelayMillis(20);
+        saveQueueConfig.setMaxAttempts(2);
+        saveQueueConfig.setMaxLockBusyRetries(2);
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (service != null) {
+            service.saves.forEach(save -> save.result.complete(true));
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void coalescesTasksArrivingWhileSaving() throws Exception {
+        start();
+        submit(1);
+        Save first = service.nextSave();
+        submit(2);
+        submit(3);
+
+        first.result.complete(true);
+        Save next = service.nextSave();
+
+        assertThat(first.task.getVersion()).isEqualTo(1);
+        // 执行期间到达的任务只保留最新的一个
+        assertThat(next.task.getVersion()).isEqualTo(3);
+        next.result.complete(true);
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(counter("onlyoffice.save.coalesced")).isEqualTo(1);
+        assertThat(journalFiles()).isEmpty();
+    }
+
+    @Test
+    void dropsTasksOlderThanSavedVersion() throws Exception {
+        start();
+        submit(10);
+        Save saving = service.nextSave();
+        // 入队时比已保存版本新, 等到前一个任务保存成功后才过期
+        submit(8);
+        saving.result.complete(true);
+        assertThat(service.noMoreSaves()).isTrue();
+
+        // 已保存版本之后到达的旧版本直接丢弃
+        submit(5);
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(counter("onlyoffice.save.stale")).isEqualTo(2);
+        assertThat(counter("onlyoffice.save.coalesced")).isEqualTo(0);
+        assertThat(journalFiles()).isEmpty();
+    }
+
+    @Test
+    void failedTaskIsReplacedByNewerPendingTask() throws Exception {
+        start();
+        submit(1);
+        Save failing = service.nextSave();
+        submit(2);
+
+        failing.result.complete(false);
+        Save next = service.nextSave();
+
+        // 已有更新的版本等待保存, 失败的旧版本不再重试
+        assertThat(next.task.getVersion()).isEqualTo(2);
+        next.result.complete(true);
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(journalFiles()).isEmpty();
+        assertThat(journalDir.resolve("failed")).isEmptyDirectory();
+    }
+
+    @Test
+    void failedTaskWithoutNewerTaskIsRetriedThenMovedToFailed() throws Exception {
+        start();
+        submit(1);
+        service.nextSave().result.complete(false);
+        Save retry = service.nextSave();
+
+        assertThat(retry.task.getVersion()).isEqualTo(1);
+        assertThat(retry.task.getAttempts()).isEqualTo(2);
+        retry.result.complete(false);
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(journalFiles()).isEmpty();
+        try (Stream<Path> failed = Files.list(journalDir.resolve("failed"))) {
+            assertThat(failed.count()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void restoreIsOrderedAfterLatestKnownVersion() throws Exception {
+        start();
+        submit(10);
+        Save saving = service.nextSave();
+        submit(20);
+        CompletableFuture<Boolean> restored = service.restore(KEY, 5);
+        saving.result.complete(true);
+
+        // 版本号取已知最新版本加一, 排在等待中的回调保存之后, 不使用本机时钟
+        Save restore = service.nextSave();
+        assertThat(restore.task.getSourceObject()).isNotNull();
+        assertThat(restore.task.getVersion()).isEqualTo(21);
+        assertThat(restore.task.getDocumentVersion()).isEqualTo("r21");
+        restore.result.complete(true);
+        assertThat(restored.get(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(counter("onlyoffice.save.coalesced")).isEqualTo(1);
+        assertThat(journalFiles()).isEmpty();
+    }
+
+    @Test
+    void lockHeldByAnotherNodeIsRetriedThenMovedToFailed() throws Exception {
+        start(new BusyCoordinationBackend());
+        submit(1);
+
+        // 每次尝试最多推迟两次, 两次尝试后放弃, 不会无限等待
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!journalFiles().isEmpty() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(20);
+        }
+        assertThat(journalFiles()).isEmpty();
+        try (Stream<Path> failed = Files.list(journalDir.resolve("failed"))) {
+            assertThat(failed.count()).isEqualTo(1);
+        }
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(counter("onlyoffice.save.lock.busy")).isEqualTo(6);
+    }
+
+    @Test
+    void recoversJournalInVersionOrder() throws Exception {
+        // 日志文件名的顺序和版本无关, 恢复时按版本排序
+        writeJournal("c", KEY, 3, 1);
+        writeJournal("a", KEY, 1, 3);
+        writeJournal("b", KEY, 2, 2);
+        writeJournal("d", "other", 7, 4);
+        start();
+
+        Save first = service.nextSave();
+        Save second = service.nextSave();
+        Save[] byKey = KEY.equals(first.task.getKey()) ? new Save[]{first, second} : new Save[]{second, first};
+        // 最旧的版本先开始执行, 中间的版本被更新的合并
+        assertThat(byKey[0].task.getVersion()).isEqualTo(1);
+        assertThat(byKey[1].task.getKey()).isEqualTo("other");
+        byKey[0].result.complete(true);
+        byKey[1].result.complete(true);
+
+        Save last = service.nextSave();
+        assertThat(last.task.getKey()).isEqualTo(KEY);
+        assertThat(last.task.getVersion()).isEqualTo(3);
+        last.result.complete(true);
+        assertThat(service.noMoreSaves()).isTrue();
+        assertThat(journalFiles()).isEmpty();
+    }
+
+    private void start() throws IOException {
+        start(new LocalCoordinationBackend());
+    }
+
+    private void start(CoordinationBackend coordinationBackend) throws IOException {
+        service = new RecordingSaveService(saveQueueConfig, meterRegistry, coordinationBackend);
+        service.init();
+    }
+
+    private void submit(long version) {
+        assertThat(service.submit(KEY, "http://document-server/" + version, null, "docx", 2, version, null)).isTrue();
+    }
+
+    private void writeJournal(String taskId, String key, long version, long sequence) throws IOException {
+        SaveTaskDTO task = new SaveTaskDTO();
+        task.setTaskId(taskId);
+        task.setKey(key);
+        task.setUrl("http://document-server/" + version);
+        task.setFileType("docx");
+        task.setStatus(2);
+        task.setVersion(version);
+        task.setSequence(sequence);
+        Files.writeString(journalDir.resolve(taskId + ".json"), JSON.toJSONString(task), StandardCharsets.UTF_8);
+    }
+
+    private List<Path> journalFiles() throws IOException {
+        try (Stream<Path> files = Files.list(journalDir)) {
+            return files.filter(file -> file.toString().endsWith(".json")).toList();
+        }
+    }
+
+    private double counter(String name) {
+        return meterRegistry.counter(name).count();
+    }
+
+    /**
+     * 一次保存调用, 由测试决定何时完成以及是否成功
+     */
+    private record Save(SaveTaskDTO task, CompletableFuture<Boolean> result) {
+    }
+
+    /**
+     * 每个文档都有版本7和它之前的任意历史版本, 不访问MinIO
+     */
+    private static class StubVersionService extends VersionService {
+
+        StubVersionService() {
+            super(null, null, new VersionConfig());
+        }
+
+        @Override
+        public VersionDTO find(String fileKey, long version) {
+            VersionDTO target = new VersionDTO();
+            target.setFileKey(fileKey);
+            target.setVersion(version);
+            target.setFileType("docx");
+            return target;
+        }
+
+        @Override
+        public long latest(String fileKey) {
+            return 7;
+        }
+    }
+
+    /**
+     * 保存锁始终被其他节点持有
+     */
+    private static class BusyCoordinationBackend implements CoordinationBackend {
+
+        @Override
+        public SaveLock tryLock(String key) {
+            return null;
+        }
+
+        @Override
+        public void release(SaveLock lock, long savedVersion) {
+        }
+
+        @Override
+        public boolean renew(SaveLock lock) {
+            return false;
+        }
+
+        @Override
+        public void publish(String objectName) {
+        }
+
+        @Override
+        public void subscribe(ChangeListener listener) {
+        }
+    }
+
+    /**
+     * 记录每次保存调用, 不下载也不写入MinIO
+     */
+    private static class RecordingSaveService extends CallbackSaveService {
+
+        private final BlockingQueue<Save> calls = new LinkedBlockingQueue<>();
+
+        private final List<Save> saves = new CopyOnWriteArrayList<>();
+
+        RecordingSaveService(SaveQueueConfig saveQueueConfig, MeterRegistry meterRegistry, CoordinationBackend coordinationBackend) {
+            super(null, null, saveQueueConfig, meterRegistry, new OnlyOfficeMetrics(meterRegistry),
+                    new IoThreadFactory(new ThreadsConfig()), null, new StubVersionService(), null, coordinationBackend,
+                    new CoordinationConfig(), null);
+        }
+
+        @Override
+        boolean save(SaveTaskDTO task, CoordinationBackend.SaveLock lock) {
+            Save save = new Save(task, new CompletableFuture<>());
+            saves.add(save);
+            calls.add(save);
+            return save.result.join();
+        }
+
+        Save nextSave() throws InterruptedException {
+            Save save = calls.poll(5, TimeUnit.SECONDS);
+            assertThat(save).as("等待保存调用超时").isNotNull();
+            return save;
+        }
+
+        /**
+         * 等待超过重试间隔, 确认没有新的保存调用
+         */
+        boolean noMoreSaves() throws InterruptedException {
+            return calls.poll(200, TimeUnit.MILLISECONDS) == null;
+        }
+    }
+}
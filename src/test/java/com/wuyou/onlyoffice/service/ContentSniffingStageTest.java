@@ -0,0 +1,147 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.UploadConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 按内容检测文件类型: OOXML的具体类型来自包中的 [Content_Types].xml, 和文件名无关, 检测后数据流回到开头
+ */
+class ContentSniffingStageTest {
+
+    private static final String DOCX = "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+
+    private static final String XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private final UploadConfig uploadConfig = new UploadConfig();
+
+    private ContentSniffingStage stage;
+
+    @BeforeEach
+    void setUp() {
+        stage = new ContentSniffingStage(uploadConfig);
+        stage.init();
+    }
+
+    @Test
+    void detectsOoxmlTypeFromContentRegardlessOfFileName() throws IOException {
+        byte[] docx = ooxml("word/document.xml", DOCX + ".main+xml", true);
+
+        for (String fileName : new String[]{"a.docx", "a.xlsx", "a.txt", "a", null}) {
+            UploadContext context = sniff(fileName, docx);
+            assertThat(context.getContentType()).as(fileName).isEqualTo(DOCX);
+            assertThat(context.getExtension()).as(fileName).isEqualTo("docx");
+            assertThat(context.isRejected()).as(fileName).isFalse();
+            // 检测后仍能从开头读到完整的数据
+            assertThat(context.getStream().readAllBytes()).as(fileName).isEqualTo(docx);
+        }
+    }
+
+    @Test
+    void findsContentTypesAfterOtherEntries() throws IOException {
+        byte[] xlsx = ooxml("xl/workbook.xml", XLSX + ".main+xml", false);
+
+        UploadContext context = sniff("report.docx", xlsx);
+
+        assertThat(context.getContentType()).isEqualTo(XLSX);
+        assertThat(context.getExtension()).isEqualTo("xlsx");
+    }
+
+    @Test
+    void rejectsOoxmlContainerWithUnknownMainPart() throws IOException {
+        byte[] unknown = ooxml("word/document.xml", "application/xml", true);
+
+        UploadContext context = sniff("a.docx", unknown);
+
+        assertThat(context.isRejected()).isTrue();
+        assertThat(context.getStream().readAllBytes()).isEqualTo(unknown);
+    }
+
+    @Test
+    void rejectsPlainZipNamedAsDocument() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("readme.txt"));
+            zip.write("hello".getBytes(StandardCharsets.UTF_8));
+        }
+
+        UploadContext context = sniff("a.docx", bytes.toByteArray());
+
+        // Tika按文件名推断为docx, 包中没有 [Content_Types].xml, 只保留容器类型
+        assertThat(context.getContentType()).isEqualTo("application/x-tika-ooxml");
+        assertThat(context.isRejected()).isTrue();
+    }
+
+    @Test
+    void rejectsWhenContentTypesIsBeyondSniffLimit() throws IOException {
+        uploadConfig.setContainerSniffBytes(1024);
+        byte[] docx = ooxml("word/document.xml", DOCX + ".main+xml", false);
+
+        UploadContext context = sniff("a.docx", docx);
+
+        assertThat(context.isRejected()).isTrue();
+        assertThat(context.getStream().readAllBytes()).isEqualTo(docx);
+    }
+
+    private UploadContext sniff(String fileName, byte[] content) throws IOException {
+        UploadContext context = new UploadContext();
+        context.setFileName(fileName);
+        // 和上传请求一样使用不支持mark的数据流
+        context.setStream(new FilterInputStream(new ByteArrayInputStream(content)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        });
+        context.setSize(content.length);
+        stage.process(context);
+        return context;
+    }
+
+    /**
+     * 最小的OOXML包, contentTypesFirst为false时 [Content_Types].xml 放在一个较大的部件之后
+     */
+    private static byte[] ooxml(String mainPart, String mainType, boolean contentTypesFirst) throws IOException {
+        String contentTypes = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                + "<Override PartName=\"/" + mainPart + "\" ContentType=\"" + mainType + "\"/>"
+                + "</Types>";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            if (contentTypesFirst) {
+                entry(zip, "[Content_Types].xml", contentTypes.getBytes(StandardCharsets.UTF_8));
+            }
+            entry(zip, "_rels/.rels", ("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\""
+                    + " Target=\"" + mainPart + "\"/></Relationships>").getBytes(StandardCharsets.UTF_8));
+            // 压缩后仍有几KB的部件, 用来把 [Content_Types].xml 推到检测范围之外
+            byte[] media = new byte[4096];
+            new Random(1).nextBytes(media);
+            entry(zip, "docProps/thumbnail.jpeg", media);
+            entry(zip, mainPart, "<document/>".getBytes(StandardCharsets.UTF_8));
+            if (!contentTypesFirst) {
+                entry(zip, "[Content_Types].xml", contentTypes.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void entry(ZipOutputStream zip, String name, byte[] content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content);
+        zip.closeEntry();
+    }
+}
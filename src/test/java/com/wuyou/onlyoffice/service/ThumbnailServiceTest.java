@@ -0,0 +1,229 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.DocumentServerClientConfig;
+import cn.superlu.onlyoffice.config.IoThreadFactory;
+import cn.superlu.onlyoffice.config.MinioConfig;
+import cn.superlu.onlyoffice.config.OnlyOfficeConfig;
+import cn.superlu.onlyoffice.config.ThreadsConfig;
+import cn.superlu.onlyoffice.config.ThumbnailConfig;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.minio.messages.Item;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 缩略图任务的调度规则: 交互任务排在批量任务之前、同一文档排队中的任务只保留一个、文档删除后不再生成
+ * <p>
+ * Document Server的转换接口被替换为由测试控制完成时机的转换, 只有一个工作线程, 执行顺序就是转换请求的顺序。
+ */
+class ThumbnailServiceTest {
+
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G'};
+
+    private final ThumbnailConfig thumbnailConfig = new ThumbnailConfig();
+
+    private final OnlyOfficeConfig onlyOfficeConfig = new OnlyOfficeConfig();
+
+    private RecordingDocumentServerClient documentServerClient;
+
+    private RecordingMinioService minioService;
+
+    private ThumbnailService service;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailConfig.setWorkers(1);
+        onlyOfficeConfig.setDocumentServerUrl("http://document-server/");
+        onlyOfficeConfig.setFileUrlPrefix("http://app/files/");
+
+        documentServerClient = new RecordingDocumentServerClient();
+        documentServerClient.init();
+        minioService = new RecordingMinioService();
+        service = new ThumbnailService(minioService, documentServerClient, new DocumentServerSigner(onlyOfficeConfig),
+                new LocalCoordinationBackend(), onlyOfficeConfig, thumbnailConfig, new SimpleMeterRegistry(),
+                new IoThreadFactory(new ThreadsConfig()));
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        documentServerClient.converts.forEach(convert -> convert.result.complete("{\"error\":-1}"));
+        service.shutdown();
+        documentServerClient.shutdown();
+    }
+
+    @Test
+    void interactiveTasksRunBeforeQueuedBulkTasks() throws Exception {
+        service.submit("blocker.docx", "1", ThumbnailService.Priority.BULK);
+        Convert blocker = documentServerClient.nextConvert();
+        service.submit("bulk1.docx", "1", ThumbnailService.Priority.BULK);
+        service.submit("bulk2.docx", "1", ThumbnailService.Priority.BULK);
+        service.submit("edited.docx", "1", ThumbnailService.Priority.INTERACTIVE);
+
+        blocker.finish();
+
+        // 后提交的交互任务先执行, 优先级相同时按提交顺序
+        assertThat(documentServerClient.nextConvert().finish().title).isEqualTo("edited.docx");
+        assertThat(documentServerClient.nextConvert().finish().title).isEqualTo("bulk1.docx");
+        assertThat(documentServerClient.nextConvert().finish().title).isEqualTo("bulk2.docx");
+        assertThat(documentServerClient.noMoreConverts()).isTrue();
+        assertThat(minioService.uploads).containsExactly("thumbnails/blocker.png", "thumbnails/edited.png",
+                "thumbnails/bulk1.png", "thumbnails/bulk2.png");
+        assertThat(service.hasThumbnail("bulk2")).isTrue();
+    }
+
+    @Test
+    void queuedTaskIsReplacedOnlyByHigherPriority() throws Exception {
+        service.submit("blocker.docx", "1", ThumbnailService.Priority.BULK);
+        Convert blocker = documentServerClient.nextConvert();
+        service.submit("a.docx", "1", ThumbnailService.Priority.BULK);
+        service.submit("b.docx", "1", ThumbnailService.Priority.BULK);
+        // 排在b之后的a被提升为交互任务
+        service.submit("a.docx", "2", ThumbnailService.Priority.INTERACTIVE);
+        // 优先级不更高的任务不替换排队中的任务
+        service.submit("a.docx", "3", ThumbnailService.Priority.BULK);
+        service.submit("b.docx", "2", ThumbnailService.Priority.BULK);
+
+        blocker.finish();
+
+        Convert first = documentServerClient.nextConvert().finish();
+        assertThat(first.title).isEqualTo("a.docx");
+        assertThat(first.key).isEqualTo("thumb_a_2");
+        Convert second = documentServerClient.nextConvert().finish();
+        assertThat(second.title).isEqualTo("b.docx");
+        assertThat(second.key).isEqualTo("thumb_b_1");
+        assertThat(documentServerClient.noMoreConverts()).isTrue();
+    }
+
+    @Test
+    void forgetDropsQueuedTask() throws Exception {
+        service.submit("blocker.docx", "1", ThumbnailService.Priority.BULK);
+        Convert blocker = documentServerClient.nextConvert();
+        service.submit("deleted.docx", "1", ThumbnailService.Priority.INTERACTIVE);
+
+        service.forget("deleted");
+        blocker.finish();
+
+        assertThat(documentServerClient.noMoreConverts()).isTrue();
+        assertThat(minioService.uploads).containsExactly("thumbnails/blocker.png");
+        assertThat(service.hasThumbnail("deleted")).isFalse();
+    }
+
+    @Test
+    void forgetWhileConvertingSkipsUpload() throws Exception {
+        service.submit("deleted.docx", "1", ThumbnailService.Priority.INTERACTIVE);
+        Convert converting = documentServerClient.nextConvert();
+
+        service.forget("deleted");
+        converting.finish();
+        // 只有一个工作线程, 下一个任务开始转换时被取消的任务已经结束
+        service.submit("next.docx", "1", ThumbnailService.Priority.INTERACTIVE);
+        documentServerClient.nextConvert().finish();
+        assertThat(documentServerClient.noMoreConverts()).isTrue();
+
+        assertThat(minioService.uploads).doesNotContain("thumbnails/deleted.png");
+        assertThat(service.hasThumbnail("deleted")).isFalse();
+    }
+
+    private record Convert(String title, String key, CompletableFuture<String> result) {
+
+        /**
+         * 转换完成, 返回缩略图的下载地址
+         */
+        Convert finish() {
+            result.complete("{\"endConvert\":true,\"fileUrl\":\"http://document-server/cache/" + key + ".png\"}");
+            return this;
+        }
+    }
+
+    /**
+     * 记录每次转换请求, 由测试决定何时完成; 下载缩略图直接返回固定内容
+     */
+    private static class RecordingDocumentServerClient extends DocumentServerClient {
+
+        private final BlockingQueue<Convert> calls = new LinkedBlockingQueue<>();
+
+        private final List<Convert> converts = new CopyOnWriteArrayList<>();
+
+        RecordingDocumentServerClient() {
+            super(null, new DocumentServerClientConfig());
+        }
+
+        @Override
+        public CompletableFuture<String> postJson(String url, String body) {
+            JSONObject payload = JSON.parseObject(body);
+            Convert convert = new Convert(payload.getString("title"), payload.getString("key"), new CompletableFuture<>());
+            converts.add(convert);
+            calls.add(convert);
+            return convert.result;
+        }
+
+        @Override
+        public CompletableFuture<Download> download(String url) {
+            return CompletableFuture.completedFuture(new Download(new ByteArrayInputStream(PNG), PNG.length));
+        }
+
+        Convert nextConvert() throws InterruptedException {
+            Convert convert = calls.poll(5, TimeUnit.SECONDS);
+            assertThat(convert).as("等待转换请求超时").isNotNull();
+            return convert;
+        }
+
+        /**
+         * 等待一段时间, 确认没有新的转换请求
+         */
+        boolean noMoreConverts() throws InterruptedException {
+            return calls.poll(200, TimeUnit.MILLISECONDS) == null;
+        }
+    }
+
+    /**
+     * 记录写入的缩略图, 不访问MinIO
+     */
+    private static class RecordingMinioService extends MinioService {
+
+        private final List<String> uploads = new CopyOnWriteArrayList<>();
+
+        RecordingMinioService() {
+            super(null, new MinioConfig(), null, null, null, null, null);
+        }
+
+        @Override
+        public boolean uploadStream(InputStream inputStream, long size, String objectName, String contentType) {
+            try {
+                inputStream.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            uploads.add(objectName);
+            return true;
+        }
+
+        @Override
+        public boolean deleteFile(String objectName) {
+            uploads.remove(objectName);
+            return true;
+        }
+
+        @Override
+        public List<Item> listObjects(String prefix, boolean recursive) {
+            return List.of();
+        }
+    }
+}
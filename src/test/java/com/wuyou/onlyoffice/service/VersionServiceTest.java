@@ -0,0 +1,89 @@
+package cn.superlu.onlyoffice.service;
+
+import cn.superlu.onlyoffice.config.VersionConfig;
+import cn.superlu.onlyoffice.dto.VersionDTO;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 历史版本的保留策略: 保留期内全部保留, 之后每天保留最后一个快照, 只有修改记录的版本依赖之前的快照
+ */
+class VersionServiceTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    // 当天中午, 避免保留期跨越的日期受时区影响
+    private static final long NOW = LocalDate.of(2024, 6, 15).atTime(LocalTime.NOON)
+            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+
+    private final VersionConfig versionConfig = new VersionConfig();
+
+    private final VersionService versionService = new VersionService(null, null, versionConfig);
+
+    @Test
+    void keepsLastSnapshotPerDayAndDropsOldChanges() {
+        versionConfig.setKeepAllMillis(HOUR);
+        TreeMap<Long, VersionDTO> versions = versions(
+                snapshot(NOW - 30 * HOUR), changes(NOW - 29 * HOUR), snapshot(NOW - 28 * HOUR), changes(NOW - 27 * HOUR),
+                snapshot(NOW - 3 * HOUR), changes(NOW - 2 * HOUR),
+                snapshot(NOW - HOUR / 2), changes(NOW - HOUR / 4));
+
+        // 前一天只保留最后一个快照, 当天保留期外的快照保留, 保留期外的修改记录全部删除
+        assertThat(versionNumbers(versionService.expired(versions, NOW)))
+                .containsExactly(NOW - 2 * HOUR, NOW - 27 * HOUR, NOW - 29 * HOUR, NOW - 30 * HOUR);
+    }
+
+    @Test
+    void keepsSnapshotThatOldestKeptChangesDependOn() {
+        versionConfig.setKeepAllMillis(HOUR);
+        TreeMap<Long, VersionDTO> versions = versions(
+                snapshot(NOW - 5 * HOUR), snapshot(NOW - 4 * HOUR), changes(NOW - 3 * HOUR), changes(NOW - 2 * HOUR),
+                changes(NOW - HOUR / 2));
+
+        // 保留期内的修改记录要从4小时前的快照依次查看, 中间的修改记录也保留
+        assertThat(versionNumbers(versionService.expired(versions, NOW))).containsExactly(NOW - 5 * HOUR);
+    }
+
+    @Test
+    void alwaysKeepsLatestVersion() {
+        versionConfig.setKeepAllMillis(HOUR);
+        versionConfig.setKeepDailyDays(0);
+        TreeMap<Long, VersionDTO> versions = versions(snapshot(NOW - 100 * HOUR), changes(NOW - 99 * HOUR));
+
+        assertThat(versionService.expired(versions, NOW)).isEmpty();
+    }
+
+    private static TreeMap<Long, VersionDTO> versions(VersionDTO... versions) {
+        TreeMap<Long, VersionDTO> map = new TreeMap<>();
+        for (VersionDTO version : versions) {
+            map.put(version.getVersion(), version);
+        }
+        return map;
+    }
+
+    private static VersionDTO snapshot(long version) {
+        VersionDTO dto = changes(version);
+        dto.setSnapshot(true);
+        return dto;
+    }
+
+    private static VersionDTO changes(long version) {
+        VersionDTO dto = new VersionDTO();
+        dto.setFileKey("doc");
+        dto.setFileType("docx");
+        dto.setVersion(version);
+        return dto;
+    }
+
+    private static List<Long> versionNumbers(List<VersionDTO> versions) {
+        return versions.stream().map(VersionDTO::getVersion).toList();
+    }
+}